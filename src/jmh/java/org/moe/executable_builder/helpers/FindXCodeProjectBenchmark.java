@@ -0,0 +1,79 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.helpers;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the fallback project search in a module with heavy build directories.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class FindXCodeProjectBenchmark {
+
+    @Param({"3", "5"})
+    public int depth;
+
+    @Param({"4", "8"})
+    public int fanOut;
+
+    private final XCodeProjectFinder sequential = new XCodeProjectFinder().setUseCache(false);
+
+    private final XCodeProjectFinder parallel = new XCodeProjectFinder().setUseCache(false).setParallel(true);
+
+    private final XCodeProjectFinder cached = new XCodeProjectFinder();
+
+    private File module;
+
+    @Setup(Level.Trial)
+    public void createModule() throws IOException {
+        module = SyntheticProjects.createTempDir("module");
+        SyntheticProjects.writeTree(new File(module, "build"), depth, fanOut);
+        SyntheticProjects.writeTree(new File(module, ".gradle"), depth, fanOut);
+        SyntheticProjects.writeTree(new File(module, "src"), depth - 1, fanOut);
+        // Outside of the well-known locations, so that the whole module is searched
+        SyntheticProjects.writeProject(new File(module, "src/main/App.xcodeproj/project.pbxproj"), 10, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteModule() {
+        SyntheticProjects.delete(module);
+    }
+
+    @Benchmark
+    public File findSequential() throws IOException {
+        return sequential.find(module);
+    }
+
+    @Benchmark
+    public File findParallel() throws IOException {
+        return parallel.find(module);
+    }
+
+    @Benchmark
+    public File findCached() throws IOException {
+        return cached.find(module);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.helpers;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+
+/**
+ * Generators of synthetic Xcode projects and module trees for benchmarks.
+ */
+class SyntheticProjects {
+
+    static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir.getAbsolutePath());
+        }
+        return dir;
+    }
+
+    /**
+     * Writes project.pbxproj with the given number of build files, the shell script
+     * build phase section is placed in the middle and referenced by the target when requested.
+     */
+    static void writeProject(File file, int objects, boolean withShellScript) throws IOException {
+        file.getParentFile().mkdirs();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+        try {
+            out.println("// !$*UTF8*$!");
+            out.println("{");
+            out.println("\tarchiveVersion = 1;");
+            out.println("\tobjectVersion = 46;");
+            out.println("\tobjects = {");
+            out.println();
+            out.println("/* Begin PBXBuildFile section */");
+            for (int i = 0; i < objects; i++) {
+                out.println("\t\t" + id(i) + " /* Source" + i + ".m in Sources */ = {isa = PBXBuildFile; fileRef = "
+                        + id(objects + i) + " /* Source" + i + ".m */; };");
+                if (withShellScript && i == objects / 2) {
+                    out.println("/* End PBXBuildFile section */");
+                    out.println();
+                    out.println("/* Begin PBXShellScriptBuildPhase section */");
+                    out.println("\t\t" + id(2 * objects) + " /* ShellScript */ = {");
+                    out.println("\t\t\tisa = PBXShellScriptBuildPhase;");
+                    out.println("\t\t\tbuildActionMask = 2147483647;");
+                    out.println("\t\t\tshellPath = /bin/sh;");
+                    out.println("\t\t\tshellScript = \"echo build\";");
+                    out.println("\t\t};");
+                    out.println("/* End PBXShellScriptBuildPhase section */");
+                    out.println();
+                    out.println("/* Begin PBXBuildFile section */");
+                }
+            }
+            out.println("/* End PBXBuildFile section */");
+            out.println();
+            out.println("/* Begin PBXFileReference section */");
+            for (int i = 0; i < objects; i++) {
+                out.println("\t\t" + id(objects + i) + " /* Source" + i + ".m */ = {isa = PBXFileReference; "
+                        + "lastKnownFileType = sourcecode.c.objc; path = Source" + i + ".m; sourceTree = \"<group>\"; };");
+            }
+            out.println("/* End PBXFileReference section */");
+            out.println();
+            out.println("/* Begin PBXNativeTarget section */");
+            out.println("\t\t" + id(2 * objects + 2) + " /* App */ = {");
+            out.println("\t\t\tisa = PBXNativeTarget;");
+            out.println("\t\t\tbuildPhases = (");
+            if (withShellScript) {
+                out.println("\t\t\t\t" + id(2 * objects) + " /* ShellScript */,");
+            }
+            out.println("\t\t\t);");
+            out.println("\t\t\tname = App;");
+            out.println("\t\t};");
+            out.println("/* End PBXNativeTarget section */");
+            out.println("\t};");
+            out.println("\trootObject = " + id(2 * objects + 1) + " /* Project object */;");
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes a directory tree with the given depth and number of subdirectories and files per directory.
+     */
+    static void writeTree(File dir, int depth, int fanOut) throws IOException {
+        dir.mkdirs();
+        for (int i = 0; i < fanOut; i++) {
+            new File(dir, "file" + i + ".class").createNewFile();
+        }
+        if (depth > 0) {
+            for (int i = 0; i < fanOut; i++) {
+                writeTree(new File(dir, "dir" + i), depth - 1, fanOut);
+            }
+        }
+    }
+
+    static void copy(File source, File target) throws IOException {
+        FileChannel input = new FileInputStream(source).getChannel();
+        try {
+            FileChannel output = new FileOutputStream(target).getChannel();
+            try {
+                output.transferFrom(input, 0, input.size());
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static String id(int index) {
+        return String.format("%024X", index);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.helpers;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of project.pbxproj sanitizing on synthetic projects of different sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class XCodeProjectFormatterBenchmark {
+
+    /*
+    Number of PBXBuildFile objects, a generated project has about 5 lines per source file
+     */
+    @Param({"1000", "20000", "200000"})
+    public int objects;
+
+    private final XCodeProjectFormatter formatter = new XCodeProjectFormatter();
+
+    private File dir;
+
+    private File template;
+
+    private File project;
+
+    @Setup(Level.Trial)
+    public void createProjects() throws IOException {
+        dir = SyntheticProjects.createTempDir("pbxproj");
+        template = new File(dir, "template.pbxproj");
+        SyntheticProjects.writeProject(template, objects, true);
+        project = new File(dir, "project.pbxproj");
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreProject() throws IOException {
+        SyntheticProjects.copy(template, project);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteProjects() {
+        SyntheticProjects.delete(dir);
+    }
+
+    @Benchmark
+    public boolean removeShellScriptPhases() {
+        // The template content repeats, so after the first invocation the parsed project comes from the cache
+        return formatter.removeShellScriptPhases(project);
+    }
+}
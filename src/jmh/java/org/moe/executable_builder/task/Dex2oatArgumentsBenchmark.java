@@ -0,0 +1,61 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of dex2oat command line assembly for different numbers of input dex files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class Dex2oatArgumentsBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int inputs;
+
+    private Dex2oat dex2oat;
+
+    @Setup
+    public void createTask() {
+        File root = new File(System.getProperty("java.io.tmpdir"), "module");
+        List<File> inputFiles = new ArrayList<File>();
+        for (int i = 0; i < inputs; i++) {
+            inputFiles.add(new File(root, "build/moe/main/Debug/library" + i + ".jar"));
+        }
+        dex2oat = new Dex2oat("arm64", "arm64", 0x70000000L,
+                new File(root, "sdk/tools/dex2oat"),
+                new File(root, "sdk/tools/preloaded-classes"),
+                inputFiles,
+                new File(root, "build/moe/main/xcode/Debug-iphoneos"));
+        dex2oat.setThreads(4);
+    }
+
+    @Benchmark
+    public List<String> getArguments() {
+        return dex2oat.getArguments();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of scheduling overhead of {@link TaskManager}: a fan-out of independent empty tasks
+ * followed by a task which depends on all of them and a final task, like Dex2oat, AppBuild and IpaBuild.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class TaskManagerBenchmark {
+
+    @Param({"2", "16", "256"})
+    public int width;
+
+    @Param({"1", "4"})
+    public int workers;
+
+    @Benchmark
+    public TaskManager runAll() {
+        TaskManager taskManager = new TaskManager(workers);
+        NoopTask join = new NoopTask("join");
+        for (int i = 0; i < width; i++) {
+            NoopTask task = new NoopTask("task" + i);
+            taskManager.addTask(task);
+            join.dependsOn(task);
+        }
+        taskManager.addTask(join);
+
+        NoopTask tail = new NoopTask("tail");
+        tail.dependsOn(join);
+        taskManager.addTask(tail);
+
+        taskManager.runAll();
+        return taskManager;
+    }
+
+    private static class NoopTask extends BaseTask {
+
+        private final String name;
+
+        NoopTask(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        void launch() {
+        }
+    }
+}
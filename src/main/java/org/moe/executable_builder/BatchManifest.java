@@ -0,0 +1,161 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder;
+
+import org.apache.commons.cli.ParseException;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.moe.executable_builder.Main.*;
+
+/**
+ * Batch build manifest. Every line describes builds of one module with the same options as
+ * the command line, lines starting with '#' are comments. Values of mode_variant, platform_name
+ * and source_set may be comma-separated lists, a build is planned for every combination of them.
+ * Values containing spaces have to be put in double quotes.
+ * <pre>
+ * -module_path /work/App -dex_files app,lib -mode_variant Debug,Release -platform_name iphoneos,iphonesimulator -source_set main -prov_profile "/path/App.mobileprovision" -sign_identity "iPhone Developer"
+ * </pre>
+ */
+public class BatchManifest {
+
+    /**
+     * Reads builds from the manifest.
+     *
+     * @param extraArgs options appended to every line, e.g. max_workers or cache settings
+     */
+    public static List<BuildOptions> read(File manifest, String[] extraArgs) throws IOException, ParseException {
+        return read(manifest, extraArgs, null);
+    }
+
+    /**
+     * Reads builds from the manifest, relative paths are resolved against the working directory.
+     *
+     * @param workingDir working directory of the caller, null for the one of this process
+     */
+    public static List<BuildOptions> read(File manifest, String[] extraArgs, File workingDir)
+            throws IOException, ParseException {
+        List<BuildOptions> builds = new ArrayList<BuildOptions>();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                List<String> args = tokenize(line);
+                args.addAll(Arrays.asList(extraArgs));
+                try {
+                    BuildOptions options = BuildOptions.parse(args.toArray(new String[args.size()]), workingDir);
+                    expand(options, builds);
+                } catch (ParseException e) {
+                    throw new ParseException(manifest.getName() + ":" + lineNumber + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return builds;
+    }
+
+    private static void expand(BuildOptions options, List<BuildOptions> builds) {
+        for (String mode : split(options.mode)) {
+            for (String platform : split(options.platform)) {
+                for (String sourceSet : split(options.sourceSet)) {
+                    builds.add(options.forVariant(mode, platform, sourceSet));
+                }
+            }
+        }
+    }
+
+    private static String[] split(String values) {
+        return values.split("\\s*,\\s*");
+    }
+
+    static List<String> tokenize(String line) throws ParseException {
+        List<String> tokens = new ArrayList<String>();
+        StringBuilder token = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                if (token == null) {
+                    token = new StringBuilder();
+                }
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (token != null) {
+                    tokens.add(token.toString());
+                    token = null;
+                }
+            } else {
+                if (token == null) {
+                    token = new StringBuilder();
+                }
+                token.append(c);
+            }
+        }
+        if (quoted) {
+            throw new ParseException("Unterminated quote");
+        }
+        if (token != null) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * Entry point of the "batch manifest [options]" command.
+     */
+    public static int run(BuildEnvironment environment, String[] args) {
+        return run(environment, args, null);
+    }
+
+    /**
+     * Runs the "batch" command of a client with the given working directory, null for the one of this process.
+     */
+    public static int run(BuildEnvironment environment, String[] args, File workingDir) {
+        if (args.length < 2) {
+            System.err.println("Usage: java -jar moeExecutableBuilder.jar " + COMMAND_BATCH + " <manifest> [options]");
+            return 1;
+        }
+
+        List<BuildOptions> builds;
+        try {
+            builds = read(BuildOptions.resolve(workingDir, args[1]), Arrays.copyOfRange(args, 2, args.length), workingDir);
+        } catch (IOException e) {
+            System.err.println("Failed to read batch manifest: " + e.getMessage());
+            return 1;
+        } catch (ParseException e) {
+            System.out.println("Unexpected exception:" + e.getMessage());
+            BuildOptions.printHelp();
+            return 1;
+        }
+
+        System.out.println("Batch of " + builds.size() + " build(s)");
+        return new Builder(environment).build(builds);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder;
+
+import org.moe.common.sdk.MOESDK;
+import org.moe.executable_builder.exec.LocalProcessExecutor;
+import org.moe.executable_builder.exec.ProcessExecutor;
+import org.moe.executable_builder.helpers.ProvisioningProfileStore;
+import org.moe.executable_builder.task.cache.ArtifactCache;
+import org.moe.executable_builder.task.cache.CacheBackend;
+import org.moe.executable_builder.task.cache.LocalCacheBackend;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * State shared by all builds running in the same JVM: the resolved SDK, caches and per-module locks.
+ * A command line build uses it once, the build daemon keeps it warm between builds.
+ */
+public class BuildEnvironment {
+
+    private final MOESDK sdk;
+
+    private final ConcurrentHashMap<String, ArtifactCache> artifactCaches = new ConcurrentHashMap<String, ArtifactCache>();
+
+    private ProvisioningProfileStore provisioningProfileStore;
+
+    private volatile ProcessExecutor processExecutor = LocalProcessExecutor.getDefault();
+
+    public BuildEnvironment(MOESDK sdk) {
+        this.sdk = sdk;
+    }
+
+    public MOESDK getSdk() {
+        return sdk;
+    }
+
+    /**
+     * Returns cache of task outputs.
+     *
+     * @param directory      local cache directory, null for none
+     * @param maxSize        size limit of the local cache
+     * @param sharedLocation URL or directory of the cache shared between machines, null for none
+     */
+    public ArtifactCache getArtifactCache(File directory, long maxSize, String sharedLocation) {
+        String key = (directory != null ? getCanonicalPath(directory) : "") + "|" + (sharedLocation != null ? sharedLocation : "");
+        ArtifactCache cache = artifactCaches.get(key);
+        if (cache == null) {
+            List<CacheBackend> backends = new ArrayList<CacheBackend>();
+            if (directory != null) {
+                backends.add(new LocalCacheBackend(directory, maxSize));
+            }
+            if (sharedLocation != null) {
+                backends.add(ArtifactCache.createSharedBackend(sharedLocation));
+            }
+            ArtifactCache newCache = new ArtifactCache(backends);
+            cache = artifactCaches.putIfAbsent(key, newCache);
+            if (cache == null) {
+                cache = newCache;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns executor launching child processes of all tasks.
+     */
+    public ProcessExecutor getProcessExecutor() {
+        return processExecutor;
+    }
+
+    /**
+     * Replaces the executor of child processes, e.g. with one which records commands instead of running them.
+     */
+    public void setProcessExecutor(ProcessExecutor processExecutor) {
+        this.processExecutor = processExecutor;
+    }
+
+    /**
+     * Returns store installing provisioning profiles, parsed profiles are remembered between builds.
+     */
+    public synchronized ProvisioningProfileStore getProvisioningProfileStore() {
+        if (provisioningProfileStore == null) {
+            provisioningProfileStore = new ProvisioningProfileStore(ProvisioningProfileStore.getDefaultInstallDirectory(),
+                    ProvisioningProfileStore.getDefaultIndexFile());
+        }
+        return provisioningProfileStore;
+    }
+
+    private static String getCanonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+}
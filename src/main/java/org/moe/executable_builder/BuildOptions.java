@@ -0,0 +1,478 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder;
+
+import org.apache.commons.cli.*;
+import org.moe.common.constants.ProductType;
+import org.moe.executable_builder.task.BaseTask;
+import org.moe.executable_builder.task.BootImage;
+import org.moe.executable_builder.task.cache.ArtifactCache;
+import org.moe.executable_builder.task.Dex2oatProfile;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.moe.executable_builder.Main.*;
+
+/**
+ * Parsed command line of a single build.
+ */
+public class BuildOptions {
+
+    String[] dexFiles;
+    String modulePath;
+    String mode;
+    String platform;
+    String sourceSet;
+    String provisioningProfile;
+    String signingIdentity;
+    ProductType productType = ProductType.app;
+    int maxWorkers = Runtime.getRuntime().availableProcessors();
+    File dex2oatCacheDir;
+    long dex2oatCacheSize = ArtifactCache.DEFAULT_MAX_SIZE;
+    int daemonPort;
+    File traceFile;
+    boolean compressLogs;
+    int dex2oatThreads;
+    File bootImageDir;
+    Dex2oatProfile dex2oatProfile;
+    List<String> dex2oatFlags = Collections.emptyList();
+    File profileFile;
+    boolean noProfile;
+    double profileTopK;
+    boolean generateImageClasses;
+    File recordedImageClasses;
+    Map<String, Long> taskTimeouts = Collections.emptyMap();
+    boolean xcrunPackage;
+
+    boolean reproducible;
+
+    String sharedCache;
+
+    boolean cacheApps;
+
+    boolean plan;
+
+    boolean noTelemetry;
+    boolean rerunTasks;
+
+    public static Options createOptions() {
+        Options options = new Options();
+
+        Option opt_modulePath = Option.builder(OPTION_MOE_MODULE_PATH)
+                .hasArg()
+                .required(true)
+                .desc("Absolute path to unzipped MOE module to build")
+                .build();
+
+        Option opt_dexFiles = Option.builder(OPTION_DEX_FILES)
+                .hasArg()
+                .valueSeparator(',')
+                .required(true)
+                .desc("Comma-separated dex files for dex2oat input. Not includes moe-core.dex and moe-ios-retro.jar")
+                .build();
+
+        Option opt_modeVariant = Option.builder(OPTION_MODE_VARIANT)
+                .hasArg()
+                .required(true)
+                .desc("Release or Debug ")
+                .build();
+
+        Option opt_platformName = Option.builder(OPTION_PLATFORM_NAME)
+                .hasArg()
+                .required(true)
+                .desc("iphoneos or iphonesimulator")
+                .build();
+
+        Option opt_sourceSet = Option.builder(OPTION_SOURCE_SET)
+                .hasArg()
+                .required(true)
+                .desc("main or test")
+                .build();
+
+        Option opt_provisioningProfile = Option.builder(OPTION_PROVISIONING_PROFILE)
+                .hasArg()
+                .required(false)
+                .desc("/Users/<user_name>/Library/MobileDevice/Provisioning Profiles/<ID>.mobileprovision")
+                .build();
+
+        Option opt_signingIdentity = Option.builder(OPTION_SIGNING_IDENTITY)
+                .hasArg()
+                .required(false)
+                .desc("iPhone Developer | iPhone Distributor : <developer name> (<developer ID>)")
+                .build();
+
+        Option opt_productType = Option.builder(PRODUCT_TYPE)
+                .hasArg()
+                .required(false)
+                .desc("app | ipa")
+                .build();
+
+        Option opt_maxWorkers = Option.builder(OPTION_MAX_WORKERS)
+                .hasArg()
+                .required(false)
+                .desc("Maximum number of tasks launched in parallel. Defaults to the number of available processors")
+                .build();
+
+        Option opt_dex2oatCacheDir = Option.builder(OPTION_DEX2OAT_CACHE_DIR)
+                .hasArg()
+                .required(false)
+                .desc("Directory of the dex2oat output cache. Defaults to ~/.moe/cache/dex2oat")
+                .build();
+
+        Option opt_dex2oatCacheSize = Option.builder(OPTION_DEX2OAT_CACHE_SIZE)
+                .hasArg()
+                .required(false)
+                .desc("Maximum size of the dex2oat output cache in megabytes")
+                .build();
+
+        Option opt_noDex2oatCache = Option.builder(OPTION_NO_DEX2OAT_CACHE)
+                .required(false)
+                .desc("Always run dex2oat, don't use the output cache")
+                .build();
+
+        Option opt_daemonPort = Option.builder(OPTION_DAEMON_PORT)
+                .hasArg()
+                .required(false)
+                .desc("Send the build to a running build daemon listening on this port")
+                .build();
+
+        Option opt_traceFile = Option.builder(OPTION_TRACE_FILE)
+                .hasArg()
+                .required(false)
+                .desc("Where to write task timings in Chrome trace event format. Defaults to build/moe/metrics/trace.json")
+                .build();
+
+        Option opt_compressLogs = Option.builder(OPTION_COMPRESS_LOGS)
+                .required(false)
+                .desc("Write gzip compressed xcodebuild, dex2oat and ipa build logs")
+                .build();
+
+        Option opt_dex2oatThreads = Option.builder(OPTION_DEX2OAT_THREADS)
+                .hasArg()
+                .required(false)
+                .desc("Compiler threads of every dex2oat process. Defaults to available processors divided by dex2oat processes running in parallel")
+                .build();
+
+        Option opt_rerunTasks = Option.builder(OPTION_RERUN_TASKS)
+                .required(false)
+                .desc("Launch all tasks, even those whose inputs and outputs haven't changed since the last build")
+                .build();
+
+        Option opt_sharedBootImage = Option.builder(OPTION_SHARED_BOOT_IMAGE)
+                .required(false)
+                .desc("Compile the SDK framework into a boot image shared by all apps and compile only the app against it")
+                .build();
+
+        Option opt_bootImageDir = Option.builder(OPTION_BOOT_IMAGE_DIR)
+                .hasArg()
+                .required(false)
+                .desc("Directory of shared boot images, implies " + OPTION_SHARED_BOOT_IMAGE + ". Defaults to ~/.moe/cache/boot")
+                .build();
+
+        Option opt_dex2oatProfile = Option.builder(OPTION_DEX2OAT_PROFILE)
+                .hasArg()
+                .required(false)
+                .desc(Dex2oatProfile.getNames() + ". Defaults to " + Dex2oatProfile.FAST_DEBUG + " for Debug and " +
+                        Dex2oatProfile.BALANCED + " for other builds")
+                .build();
+
+        Option opt_dex2oatFlags = Option.builder(OPTION_DEX2OAT_FLAGS)
+                .hasArg()
+                .required(false)
+                .desc("Space-separated flags passed to dex2oat after those of the profile")
+                .build();
+
+        Option opt_profileFile = Option.builder(OPTION_PROFILE_FILE)
+                .hasArg()
+                .required(false)
+                .desc("Method profile guiding dex2oat. Defaults to build/moe/profiles/<source set>.prof when it exists")
+                .build();
+
+        Option opt_noProfile = Option.builder(OPTION_NO_PROFILE)
+                .required(false)
+                .desc("Compile without method profile")
+                .build();
+
+        Option opt_profileTopK = Option.builder(OPTION_PROFILE_TOP_K)
+                .hasArg()
+                .required(false)
+                .desc("Percentage of profile samples covered by methods compiled as hot")
+                .build();
+
+        Option opt_generateImageClasses = Option.builder(OPTION_GENERATE_IMAGE_CLASSES)
+                .required(false)
+                .desc("Put only preloaded classes referenced by the app into the image")
+                .build();
+
+        Option opt_recordedImageClasses = Option.builder(OPTION_RECORDED_IMAGE_CLASSES)
+                .hasArg()
+                .required(false)
+                .desc("Classes recorded at runtime added to the generated image classes, implies " + OPTION_GENERATE_IMAGE_CLASSES)
+                .build();
+
+        Option opt_taskTimeout = Option.builder(OPTION_TASK_TIMEOUT)
+                .hasArg()
+                .required(false)
+                .desc("Seconds a task may run before it's killed, for all tasks (600) or per task name prefix (Dex2oat=900,AppBuild=1800)")
+                .build();
+
+        Option opt_xcrunPackage = Option.builder(OPTION_XCRUN_PACKAGE)
+                .required(false)
+                .desc("Package the ipa with xcrun PackageApplication instead of the built-in writer")
+                .build();
+
+        Option opt_reproducible = Option.builder(OPTION_REPRODUCIBLE)
+                .required(false)
+                .desc("Make outputs depend only on inputs: fixed ipa entry times, fixed log names, canonical paths and single-threaded dex2oat")
+                .build();
+
+        Option opt_sharedCache = Option.builder(OPTION_SHARED_CACHE)
+                .hasArg()
+                .required(false)
+                .desc("Cache shared between machines, an HTTP store URL or a shared directory, searched after the local cache")
+                .build();
+
+        Option opt_cacheApps = Option.builder(OPTION_CACHE_APPS)
+                .required(false)
+                .desc("Look up built .app and .ipa artifacts in the caches as well as dex2oat outputs")
+                .build();
+
+        Option opt_plan = Option.builder(OPTION_PLAN)
+                .longOpt(OPTION_PLAN)
+                .required(false)
+                .desc("Print tasks of the build, their estimated durations and the critical path without launching anything")
+                .build();
+
+        Option opt_noTelemetry = Option.builder(OPTION_NO_TELEMETRY)
+                .required(false)
+                .desc("Don't append the build to the telemetry history in build/moe/telemetry")
+                .build();
+
+        options.addOption(opt_dexFiles);
+        options.addOption(opt_modulePath);
+        options.addOption(opt_modeVariant);
+        options.addOption(opt_platformName);
+        options.addOption(opt_sourceSet);
+        options.addOption(opt_provisioningProfile);
+        options.addOption(opt_signingIdentity);
+        options.addOption(opt_productType);
+        options.addOption(opt_maxWorkers);
+        options.addOption(opt_dex2oatCacheDir);
+        options.addOption(opt_dex2oatCacheSize);
+        options.addOption(opt_noDex2oatCache);
+        options.addOption(opt_daemonPort);
+        options.addOption(opt_traceFile);
+        options.addOption(opt_compressLogs);
+        options.addOption(opt_dex2oatThreads);
+        options.addOption(opt_rerunTasks);
+        options.addOption(opt_sharedBootImage);
+        options.addOption(opt_bootImageDir);
+        options.addOption(opt_dex2oatProfile);
+        options.addOption(opt_dex2oatFlags);
+        options.addOption(opt_profileFile);
+        options.addOption(opt_noProfile);
+        options.addOption(opt_profileTopK);
+        options.addOption(opt_generateImageClasses);
+        options.addOption(opt_recordedImageClasses);
+        options.addOption(opt_taskTimeout);
+        options.addOption(opt_xcrunPackage);
+        options.addOption(opt_reproducible);
+        options.addOption(opt_sharedCache);
+        options.addOption(opt_cacheApps);
+        options.addOption(opt_plan);
+        options.addOption(opt_noTelemetry);
+
+        return options;
+    }
+
+    public static BuildOptions parse(String[] args) throws ParseException {
+        return parse(args, null);
+    }
+
+    /**
+     * Parses the command line, relative paths are resolved against the working directory.
+     *
+     * @param workingDir working directory of the caller, null for the one of this process
+     */
+    public static BuildOptions parse(String[] args, File workingDir) throws ParseException {
+        CommandLineParser parser = new DefaultParser();
+        CommandLine line = parser.parse(createOptions(), args);
+
+        BuildOptions options = new BuildOptions();
+        options.dexFiles = line.getOptionValues(OPTION_DEX_FILES);
+        options.modulePath = resolvePath(workingDir, line.getOptionValue(OPTION_MOE_MODULE_PATH));
+        options.mode = line.getOptionValue(OPTION_MODE_VARIANT);
+        options.platform = line.getOptionValue(OPTION_PLATFORM_NAME);
+        options.sourceSet = line.getOptionValue(OPTION_SOURCE_SET);
+        options.provisioningProfile = resolvePath(workingDir, line.getOptionValue(OPTION_PROVISIONING_PROFILE));
+        options.signingIdentity = line.getOptionValue(OPTION_SIGNING_IDENTITY);
+        options.compressLogs = line.hasOption(OPTION_COMPRESS_LOGS);
+        options.rerunTasks = line.hasOption(OPTION_RERUN_TASKS);
+        options.xcrunPackage = line.hasOption(OPTION_XCRUN_PACKAGE);
+        options.reproducible = line.hasOption(OPTION_REPRODUCIBLE);
+        options.sharedCache = line.getOptionValue(OPTION_SHARED_CACHE);
+        if (options.sharedCache != null && !options.sharedCache.contains("://")) {
+            options.sharedCache = resolvePath(workingDir, options.sharedCache);
+        }
+        options.cacheApps = line.hasOption(OPTION_CACHE_APPS);
+        options.plan = line.hasOption(OPTION_PLAN);
+        options.noTelemetry = line.hasOption(OPTION_NO_TELEMETRY);
+        if (line.hasOption(OPTION_BOOT_IMAGE_DIR)) {
+            options.bootImageDir = resolve(workingDir, line.getOptionValue(OPTION_BOOT_IMAGE_DIR));
+        } else if (line.hasOption(OPTION_SHARED_BOOT_IMAGE)) {
+            options.bootImageDir = BootImage.getDefaultDirectory();
+        }
+        options.noProfile = line.hasOption(OPTION_NO_PROFILE);
+        if (line.hasOption(OPTION_RECORDED_IMAGE_CLASSES)) {
+            options.recordedImageClasses = resolve(workingDir, line.getOptionValue(OPTION_RECORDED_IMAGE_CLASSES));
+        }
+        options.generateImageClasses = line.hasOption(OPTION_GENERATE_IMAGE_CLASSES) || options.recordedImageClasses != null;
+        if (line.hasOption(OPTION_PROFILE_FILE)) {
+            options.profileFile = resolve(workingDir, line.getOptionValue(OPTION_PROFILE_FILE));
+        }
+        options.traceFile = line.hasOption(OPTION_TRACE_FILE) ?
+                resolve(workingDir, line.getOptionValue(OPTION_TRACE_FILE)) :
+                new File(options.modulePath, "build" + File.separator + BaseTask.MOE + File.separator + "metrics" + File.separator + "trace.json");
+
+        try {
+            if (line.hasOption(PRODUCT_TYPE)) {
+                options.productType = ProductType.valueOf(line.getOptionValue(PRODUCT_TYPE));
+            }
+            if (line.hasOption(OPTION_MAX_WORKERS)) {
+                options.maxWorkers = Integer.parseInt(line.getOptionValue(OPTION_MAX_WORKERS));
+            }
+            if (!line.hasOption(OPTION_NO_DEX2OAT_CACHE)) {
+                options.dex2oatCacheDir = line.hasOption(OPTION_DEX2OAT_CACHE_DIR) ?
+                        resolve(workingDir, line.getOptionValue(OPTION_DEX2OAT_CACHE_DIR)) : ArtifactCache.getDefaultDirectory();
+                if (line.hasOption(OPTION_DEX2OAT_CACHE_SIZE)) {
+                    options.dex2oatCacheSize = Long.parseLong(line.getOptionValue(OPTION_DEX2OAT_CACHE_SIZE)) * 1024 * 1024;
+                }
+            }
+            if (line.hasOption(OPTION_DEX2OAT_THREADS)) {
+                options.dex2oatThreads = Integer.parseInt(line.getOptionValue(OPTION_DEX2OAT_THREADS));
+            }
+            if (line.hasOption(OPTION_DEX2OAT_PROFILE)) {
+                options.dex2oatProfile = Dex2oatProfile.forName(line.getOptionValue(OPTION_DEX2OAT_PROFILE));
+            }
+            if (line.hasOption(OPTION_DEX2OAT_FLAGS)) {
+                String flags = line.getOptionValue(OPTION_DEX2OAT_FLAGS).trim();
+                if (!flags.isEmpty()) {
+                    options.dex2oatFlags = Arrays.asList(flags.split("\\s+"));
+                }
+            }
+            if (line.hasOption(OPTION_PROFILE_TOP_K)) {
+                options.profileTopK = Double.parseDouble(line.getOptionValue(OPTION_PROFILE_TOP_K));
+                if (options.profileTopK <= 0 || options.profileTopK > 100) {
+                    throw new ParseException("Invalid " + OPTION_PROFILE_TOP_K + ": " + options.profileTopK);
+                }
+            }
+            if (line.hasOption(OPTION_TASK_TIMEOUT)) {
+                options.taskTimeouts = parseTimeouts(line.getOptionValue(OPTION_TASK_TIMEOUT));
+            }
+            if (line.hasOption(OPTION_DAEMON_PORT)) {
+                options.daemonPort = Integer.parseInt(line.getOptionValue(OPTION_DAEMON_PORT));
+            }
+        } catch (NumberFormatException e) {
+            throw new ParseException("Invalid numeric option value: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new ParseException("Invalid option value: " + e.getMessage());
+        }
+
+        return options;
+    }
+
+    static File resolve(File workingDir, String path) {
+        File file = new File(path);
+        return workingDir == null || file.isAbsolute() ? file : new File(workingDir, path);
+    }
+
+    private static String resolvePath(File workingDir, String path) {
+        return path == null || path.isEmpty() ? path : resolve(workingDir, path).getPath();
+    }
+
+    private static Map<String, Long> parseTimeouts(String value) throws ParseException {
+        Map<String, Long> timeouts = new HashMap<String, Long>();
+        for (String entry : value.split(",")) {
+            entry = entry.trim();
+            int separator = entry.indexOf('=');
+            String name = separator < 0 ? "" : entry.substring(0, separator).trim();
+            long timeout = Long.parseLong(entry.substring(separator + 1).trim());
+            if (timeout < 0) {
+                throw new ParseException("Invalid " + OPTION_TASK_TIMEOUT + ": " + entry);
+            }
+            timeouts.put(name, timeout);
+        }
+        return timeouts;
+    }
+
+    /**
+     * Returns copy of these options for another variant of the module.
+     */
+    BuildOptions forVariant(String mode, String platform, String sourceSet) {
+        BuildOptions options = new BuildOptions();
+        options.dexFiles = dexFiles;
+        options.modulePath = modulePath;
+        options.mode = mode;
+        options.platform = platform;
+        options.sourceSet = sourceSet;
+        options.provisioningProfile = provisioningProfile;
+        options.signingIdentity = signingIdentity;
+        options.productType = productType;
+        options.maxWorkers = maxWorkers;
+        options.dex2oatCacheDir = dex2oatCacheDir;
+        options.dex2oatCacheSize = dex2oatCacheSize;
+        options.daemonPort = daemonPort;
+        options.traceFile = traceFile;
+        options.compressLogs = compressLogs;
+        options.dex2oatThreads = dex2oatThreads;
+        options.rerunTasks = rerunTasks;
+        options.bootImageDir = bootImageDir;
+        options.dex2oatProfile = dex2oatProfile;
+        options.dex2oatFlags = dex2oatFlags;
+        options.profileFile = profileFile;
+        options.noProfile = noProfile;
+        options.profileTopK = profileTopK;
+        options.generateImageClasses = generateImageClasses;
+        options.recordedImageClasses = recordedImageClasses;
+        options.taskTimeouts = taskTimeouts;
+        options.xcrunPackage = xcrunPackage;
+        options.reproducible = reproducible;
+        options.sharedCache = sharedCache;
+        options.cacheApps = cacheApps;
+        options.plan = plan;
+        options.noTelemetry = noTelemetry;
+        return options;
+    }
+
+    public static void printHelp() {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("java -jar moeExecutableBuilder.jar", createOptions(), true);
+    }
+
+    public String getModulePath() {
+        return modulePath;
+    }
+
+    public int getDaemonPort() {
+        return daemonPort;
+    }
+}
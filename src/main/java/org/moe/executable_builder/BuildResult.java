@@ -0,0 +1,90 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder;
+
+import org.moe.executable_builder.task.TaskMetrics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a build: exit code, the failure if there was one, metrics and outputs of every task.
+ */
+public class BuildResult {
+
+    private final int exitCode;
+
+    private final String failedTask;
+
+    private final String message;
+
+    private final List<TaskMetrics> tasks;
+
+    private final List<File> outputs;
+
+    BuildResult(int exitCode, String failedTask, String message, List<TaskMetrics> tasks, List<File> outputs) {
+        this.exitCode = exitCode;
+        this.failedTask = failedTask;
+        this.message = message;
+        this.tasks = Collections.unmodifiableList(new ArrayList<TaskMetrics>(tasks));
+        this.outputs = Collections.unmodifiableList(new ArrayList<File>(outputs));
+    }
+
+    static BuildResult failure(String message) {
+        return new BuildResult(1, null, message, Collections.<TaskMetrics>emptyList(), Collections.<File>emptyList());
+    }
+
+    public boolean isSuccess() {
+        return exitCode == 0;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * Returns name of the task which failed first, null if the build succeeded or failed outside of tasks.
+     */
+    public String getFailedTask() {
+        return failedTask;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public List<TaskMetrics> getTasks() {
+        return tasks;
+    }
+
+    /**
+     * Returns output files and directories of all tasks, in the order tasks were planned.
+     */
+    public List<File> getOutputs() {
+        return outputs;
+    }
+
+    @Override
+    public String toString() {
+        if (isSuccess()) {
+            return "Build succeeded";
+        }
+        return "Build failed" + (failedTask != null ? " in " + failedTask : "") + ": " + message;
+    }
+}
@@ -0,0 +1,440 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder;
+
+import org.apache.commons.io.FilenameUtils;
+import org.moe.common.variant.ArchitectureVariant;
+import org.moe.common.variant.ModeVariant;
+import org.moe.common.variant.TargetVariant;
+import org.moe.common.constants.ProductType;
+import org.moe.executable_builder.task.*;
+import org.moe.executable_builder.task.cache.ArtifactCache;
+import org.moe.executable_builder.telemetry.BuildRecord;
+import org.moe.executable_builder.telemetry.TelemetryStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates and runs tasks of one or more builds. Tasks of all builds form one graph,
+ * equal tasks of different builds are launched only once.
+ */
+public class Builder {
+
+    private final BuildEnvironment environment;
+
+    public Builder(BuildEnvironment environment) {
+        this.environment = environment;
+    }
+
+    /**
+     * Runs the build described by options.
+     *
+     * @return exit code, 0 on success
+     */
+    public int build(BuildOptions options) {
+        return build(Collections.singletonList(options));
+    }
+
+    /**
+     * Runs all builds together, the number of tasks running in parallel is limited by
+     * the max_workers option of the first build. With the plan option of the first build
+     * the plan is printed instead.
+     *
+     * @return exit code, 0 if all builds succeeded
+     */
+    public int build(List<BuildOptions> builds) {
+        if (!builds.isEmpty() && builds.get(0).plan) {
+            return printPlan(builds);
+        }
+
+        BuildResult result = run(builds);
+        if (!result.isSuccess()) {
+            System.err.println(result);
+        }
+        return result.getExitCode();
+    }
+
+    /**
+     * Runs all builds together and reports the outcome, failures never end the process.
+     */
+    public BuildResult run(List<BuildOptions> builds) {
+        if (builds.isEmpty()) {
+            return new BuildResult(0, null, null, Collections.<TaskMetrics>emptyList(), Collections.<File>emptyList());
+        }
+
+        return runBuilds(builds);
+    }
+
+    /**
+     * Plans all builds and prints which tasks would be launched and how long they would take.
+     *
+     * @return exit code, 0 if all builds are configured correctly
+     */
+    public int printPlan(List<BuildOptions> builds) {
+        Plan plan = new Plan(new TaskManager(builds.get(0).maxWorkers), getDefaultDex2oatThreads(builds));
+        for (BuildOptions options : builds) {
+            if (!plan(options, plan)) {
+                System.err.println("Invalid configuration of " + options.modulePath);
+                return 1;
+            }
+        }
+
+        try {
+            PlanReport.analyse(plan.taskManager).print(System.out);
+        } catch (BuildException e) {
+            System.err.println(e.getMessage());
+            return e.getExitCode();
+        }
+        return 0;
+    }
+
+    private BuildResult runBuilds(List<BuildOptions> builds) {
+        BuildOptions first = builds.get(0);
+        TaskManager taskManager = new TaskManager(first.maxWorkers);
+
+        Plan plan = new Plan(taskManager, getDefaultDex2oatThreads(builds));
+        for (BuildOptions options : builds) {
+            if (!plan(options, plan)) {
+                return BuildResult.failure("Invalid configuration of " + options.modulePath);
+            }
+        }
+
+        int exitCode = 0;
+        String failedTask = null;
+        String message = null;
+        try {
+            for (BaseTask task : taskManager.sortTasks()) {
+                task.setExecutor(environment.getProcessExecutor());
+            }
+            taskManager.runAll();
+        } catch (BuildException e) {
+            exitCode = e.getExitCode();
+            failedTask = e.getTask() != null ? e.getTask().getName() : null;
+            message = e.getMessage();
+        } catch (RuntimeException e) {
+            exitCode = 1;
+            message = e.toString();
+        } finally {
+            for (ArtifactCache artifactCache : plan.artifactCaches) {
+                System.out.println(artifactCache);
+            }
+            writeTrace(taskManager, first.traceFile);
+        }
+
+        List<TaskMetrics> metrics = new ArrayList<TaskMetrics>();
+        List<File> outputs = new ArrayList<File>();
+        for (BaseTask task : taskManager.sortTasks()) {
+            metrics.add(task.getMetrics());
+            outputs.addAll(task.getOutputFiles());
+        }
+
+        if (!first.noTelemetry) {
+            for (Map.Entry<String, Set<BaseTask>> module : plan.moduleTasks.entrySet()) {
+                writeTelemetry(module.getKey(), exitCode, module.getValue());
+            }
+        }
+
+        return new BuildResult(exitCode, failedTask, message, metrics, outputs);
+    }
+
+    /**
+     * Appends the build to the telemetry history of a module. Tasks shared by modules of a batch,
+     * e.g. a boot image, are recorded in each of them.
+     */
+    private static void writeTelemetry(String modulePath, int exitCode, Set<BaseTask> tasks) {
+        List<BuildRecord.TaskSample> samples = new ArrayList<BuildRecord.TaskSample>();
+        int moduleExitCode = 0;
+        long cacheHits = 0;
+        long cacheMisses = 0;
+        for (BaseTask task : tasks) {
+            TaskMetrics metrics = task.getMetrics();
+            TaskMetrics.Status status = metrics.getStatus();
+            if (status == TaskMetrics.Status.NOT_RUN) {
+                continue;
+            }
+            // Other modules of a batch don't fail a module whose own tasks completed
+            if (status == TaskMetrics.Status.FAILED || status == TaskMetrics.Status.CANCELLED) {
+                moduleExitCode = exitCode != 0 ? exitCode : 1;
+            }
+            if (metrics.getCacheResult() == TaskMetrics.CacheResult.HIT) {
+                cacheHits++;
+            } else if (metrics.getCacheResult() == TaskMetrics.CacheResult.MISS) {
+                cacheMisses++;
+            }
+            samples.add(new BuildRecord.TaskSample(metrics.getTaskName(), status.name(), metrics.isReused(),
+                    toMillis(metrics.getWallTimeNanos()), metrics.getInputBytes(), metrics.getOutputBytes()));
+        }
+
+        try {
+            new TelemetryStore(TelemetryStore.getDefaultFile(modulePath)).append(
+                    new BuildRecord(System.currentTimeMillis(), moduleExitCode, cacheHits, cacheMisses, samples));
+        } catch (IOException e) {
+            System.err.println("Failed to write build telemetry of " + modulePath + ": " + e.getMessage());
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos >= 0 ? TimeUnit.NANOSECONDS.toMillis(nanos) : -1;
+    }
+
+    /**
+     * Returns compiler threads of every dex2oat process. Architectures of all modules of the batch are
+     * compiled in parallel on the shared workers, each dex2oat gets its share of processors.
+     */
+    private static int getDefaultDex2oatThreads(List<BuildOptions> builds) {
+        int dex2oatTasks = 0;
+        for (BuildOptions options : builds) {
+            try {
+                TargetVariant targetVariant = TargetVariant.getTargetVariantByPlatformName(options.platform);
+                dex2oatTasks += ArchitectureVariant.getSupportedArchitectureVariants(targetVariant).size();
+            } catch (Exception e) {
+                // Misconfigured builds are reported when they are planned
+            }
+        }
+        return Dex2oat.getDefaultThreads(Math.min(builds.get(0).maxWorkers, dex2oatTasks));
+    }
+
+    /**
+     * Adds tasks of a build to the task manager.
+     *
+     * @return false if the build is misconfigured
+     */
+    private boolean plan(BuildOptions options, Plan plan) {
+        // TODO: Decide: use or not to use File.separator
+
+        ModeVariant modeVariant;
+        TargetVariant targetVariant;
+        try {
+            modeVariant = ModeVariant.getModeVariant(options.mode);
+            targetVariant = TargetVariant.getTargetVariantByPlatformName(options.platform);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+        Collection<ArchitectureVariant> architectures = ArchitectureVariant.getSupportedArchitectureVariants(targetVariant);
+
+        ArtifactCache artifactCache = null;
+        if (options.dex2oatCacheDir != null || options.sharedCache != null) {
+            artifactCache = environment.getArtifactCache(options.dex2oatCacheDir, options.dex2oatCacheSize, options.sharedCache);
+            plan.artifactCaches.add(artifactCache);
+        }
+
+        TaskStateStore stateStore = null;
+        if (!options.rerunTasks) {
+            File stateFile = TaskStateStore.getDefaultFile(options.modulePath);
+            stateStore = plan.stateStores.get(stateFile.getAbsolutePath());
+            if (stateStore == null) {
+                stateStore = TaskStateStore.load(stateFile);
+                plan.stateStores.put(stateFile.getAbsolutePath(), stateStore);
+            }
+        }
+
+        Dex2oatProfile dex2oatProfile = options.dex2oatProfile != null ? options.dex2oatProfile :
+                Dex2oatProfile.getDefault(modeVariant);
+
+        File profileFile = null;
+        if (!options.noProfile) {
+            profileFile = options.profileFile != null ? options.profileFile :
+                    Dex2oat.getDefaultProfileFile(options.modulePath, options.sourceSet);
+            if (!profileFile.isFile()) {
+                if (options.profileFile != null) {
+                    System.err.println("Profile file " + profileFile + " doesn't exist");
+                    return false;
+                }
+                profileFile = null;
+            }
+        }
+
+        if (options.recordedImageClasses != null && !options.recordedImageClasses.isFile()) {
+            System.err.println("Recorded image classes " + options.recordedImageClasses + " don't exist");
+            return false;
+        }
+
+        int dex2oatThreads = options.dex2oatThreads > 0 ? options.dex2oatThreads : plan.defaultDex2oatThreads;
+
+        try {
+
+            List<Dex2oat> dex2oatTasks = new ArrayList<Dex2oat>();
+            for (ArchitectureVariant arch : architectures) {
+                Dex2oat dex2oat = new Dex2oat(
+                        environment.getSdk(),
+                        options.modulePath,
+                        options.sourceSet,
+                        modeVariant,
+                        options.dexFiles,
+                        arch,
+                        targetVariant
+                );
+                dex2oat.setCache(artifactCache);
+                dex2oat.setThreads(dex2oatThreads);
+                dex2oat.setReproducible(options.reproducible);
+                dex2oat.setCompressLogs(options.compressLogs);
+                dex2oat.setProfile(dex2oatProfile);
+                dex2oat.setExtraFlags(options.dex2oatFlags);
+                dex2oat.setProfileFile(profileFile, options.profileTopK);
+                if (options.bootImageDir == null && options.generateImageClasses) {
+                    // Lists are the same for all architectures of the variant, equal tasks are merged
+                    ImageClasses imageClasses = new ImageClasses(dex2oat.getAppDexFiles(),
+                            environment.getSdk().getTools().preloadedClasses(), options.recordedImageClasses,
+                            new File(dex2oat.getOutDir(), ImageClasses.FILE_NAME));
+                    imageClasses = addTask(plan, options, imageClasses, stateStore);
+                    dex2oat.setImageClasses(imageClasses.getOutputFile());
+                    dex2oat.dependsOn(imageClasses);
+                }
+                if (options.bootImageDir != null) {
+                    BootImage bootImage = new BootImage(environment.getSdk(), arch, dex2oatProfile,
+                            options.dex2oatFlags, options.bootImageDir);
+                    bootImage.setThreads(options.reproducible ? 1 : dex2oatThreads);
+                    // Dex2oat is up-to-date only if its dependencies are, so the image needs a state as well
+                    bootImage = addTask(plan, options, bootImage, stateStore);
+                    dex2oat.setBootImage(bootImage);
+                    dex2oat.dependsOn(bootImage);
+                }
+                dex2oatTasks.add(addTask(plan, options, dex2oat, stateStore));
+            }
+
+            if ((options.provisioningProfile == null) || options.provisioningProfile.isEmpty()) {
+                System.err.print("ProvisioningProfile is null or empty.");
+                return false;
+            }
+            if ((options.signingIdentity == null) || options.signingIdentity.isEmpty()) {
+                System.err.print("SigningIdentity is null or empty.");
+                return false;
+            }
+
+            IBTool ibTask = addTask(plan, options, new IBTool(options.sourceSet, options.modulePath), stateStore);
+
+            // Dex2oat tasks are independent from each other, only xcodebuild needs all of them
+            AppBuild buildApp = new AppBuild(options.modulePath, modeVariant, targetVariant, options.signingIdentity, options.provisioningProfile);
+            buildApp.setCompressLogs(options.compressLogs);
+            buildApp.setReproducible(options.reproducible);
+            if (options.cacheApps) {
+                buildApp.setCache(artifactCache);
+            }
+            buildApp.setProvisioningProfileStore(environment.getProvisioningProfileStore());
+            for (Dex2oat dex2oat : dex2oatTasks) {
+                buildApp.dependsOn(dex2oat);
+            }
+            buildApp.dependsOn(ibTask);
+
+            buildApp = addTask(plan, options, buildApp, stateStore);
+
+            if (options.productType == ProductType.ipa) {
+                IpaBuild buildIpa = new IpaBuild(buildApp.getBuiltAppFile(), buildApp.getOutPath(), options.provisioningProfile, options.signingIdentity);
+                File publishedApp = buildApp.getAppFile();
+                buildIpa.setPublishedIpa(new File(publishedApp.getParentFile(),
+                        FilenameUtils.removeExtension(publishedApp.getName()) + ".ipa"));
+                buildIpa.setCompressLogs(options.compressLogs);
+                buildIpa.setUseXcrun(options.xcrunPackage);
+                buildIpa.setReproducible(options.reproducible);
+                if (options.cacheApps) {
+                    buildIpa.setCache(artifactCache);
+                }
+                buildIpa.dependsOn(buildApp);
+                addTask(plan, options, buildIpa, stateStore);
+            }
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    private static <T extends BaseTask> T addTask(Plan plan, BuildOptions options, T task, TaskStateStore stateStore) {
+        TaskManager taskManager = plan.taskManager;
+        Long timeout = getTimeout(options.taskTimeouts, task.getName());
+        if (timeout != null) {
+            task.setTimeout(timeout, TimeUnit.SECONDS);
+        }
+        T registered = taskManager.addTask(task);
+        if (stateStore != null) {
+            taskManager.setStateStore(registered, stateStore);
+        }
+
+        String module = new File(options.modulePath).getAbsolutePath();
+        Set<BaseTask> tasks = plan.moduleTasks.get(module);
+        if (tasks == null) {
+            tasks = new LinkedHashSet<BaseTask>();
+            plan.moduleTasks.put(module, tasks);
+        }
+        tasks.add(registered);
+        return registered;
+    }
+
+    /**
+     * Returns timeout for the task: the one given for its name, for a prefix of its name
+     * (e.g. Dex2oat for Dex2oat-arm64) or for all tasks, null if none was given.
+     */
+    private static Long getTimeout(Map<String, Long> timeouts, String taskName) {
+        Long timeout = timeouts.get(taskName);
+        if (timeout != null) {
+            return timeout;
+        }
+        String longestPrefix = null;
+        for (String name : timeouts.keySet()) {
+            if (!name.isEmpty() && taskName.startsWith(name) && (longestPrefix == null || name.length() > longestPrefix.length())) {
+                longestPrefix = name;
+            }
+        }
+        return longestPrefix != null ? timeouts.get(longestPrefix) : timeouts.get("");
+    }
+
+    /**
+     * State shared by builds planned into the same task graph.
+     */
+    private static class Plan {
+
+        final TaskManager taskManager;
+
+        final Set<ArtifactCache> artifactCaches = new LinkedHashSet<ArtifactCache>();
+
+        final Map<String, TaskStateStore> stateStores = new HashMap<String, TaskStateStore>();
+
+        /*
+        Tasks each module of the batch needs, in the order they were planned
+         */
+        final Map<String, Set<BaseTask>> moduleTasks = new LinkedHashMap<String, Set<BaseTask>>();
+
+        /*
+        Compiler threads of dex2oat processes of builds without -dex2oat_threads
+         */
+        final int defaultDex2oatThreads;
+
+        Plan(TaskManager taskManager, int defaultDex2oatThreads) {
+            this.taskManager = taskManager;
+            this.defaultDex2oatThreads = defaultDex2oatThreads;
+        }
+    }
+
+    private static void writeTrace(TaskManager taskManager, File traceFile) {
+        for (BaseTask task : taskManager.sortTasks()) {
+            if (task.getMetrics().getStatus() != TaskMetrics.Status.NOT_RUN) {
+                System.out.println(task.getMetrics());
+            }
+        }
+        try {
+            taskManager.writeTrace(traceFile);
+        } catch (IOException e) {
+            System.err.println("Failed to write build trace: " + e.getMessage());
+        }
+    }
+}
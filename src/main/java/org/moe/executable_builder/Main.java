@@ -16,17 +16,13 @@ limitations under the License.
 
 package org.moe.executable_builder;
 
-import org.moe.common.constants.ProductType;
 import org.moe.common.sdk.MOESDK;
-import org.moe.common.variant.ArchitectureVariant;
-import org.moe.common.variant.ModeVariant;
-import org.moe.common.variant.TargetVariant;
-import org.moe.executable_builder.task.*;
+import org.moe.executable_builder.daemon.BuildDaemon;
+import org.moe.executable_builder.daemon.DaemonClient;
+import org.moe.executable_builder.helpers.MethodProfile;
+import org.moe.executable_builder.telemetry.RegressionReport;
 import org.apache.commons.cli.*;
 
-import java.io.IOException;
-import java.util.Collection;
-
 
 public class Main {
 
@@ -38,160 +34,76 @@ public class Main {
     public static final String OPTION_PROVISIONING_PROFILE = "prov_profile";
     public static final String OPTION_SIGNING_IDENTITY = "sign_identity";
     public static final String PRODUCT_TYPE = "product_type";
+    public static final String OPTION_MAX_WORKERS = "max_workers";
+    public static final String OPTION_DEX2OAT_CACHE_DIR = "dex2oat_cache_dir";
+    public static final String OPTION_DEX2OAT_CACHE_SIZE = "dex2oat_cache_size";
+    public static final String OPTION_NO_DEX2OAT_CACHE = "no_dex2oat_cache";
+    public static final String OPTION_DAEMON_PORT = "daemon_port";
+    public static final String OPTION_TRACE_FILE = "trace_file";
+    public static final String OPTION_COMPRESS_LOGS = "compress_logs";
+    public static final String OPTION_DEX2OAT_THREADS = "dex2oat_threads";
+    public static final String OPTION_RERUN_TASKS = "rerun_tasks";
+    public static final String OPTION_SHARED_BOOT_IMAGE = "shared_boot_image";
+    public static final String OPTION_BOOT_IMAGE_DIR = "boot_image_dir";
+    public static final String OPTION_DEX2OAT_PROFILE = "dex2oat_profile";
+    public static final String OPTION_DEX2OAT_FLAGS = "dex2oat_flags";
+    public static final String OPTION_PROFILE_FILE = "profile_file";
+    public static final String OPTION_NO_PROFILE = "no_profile";
+    public static final String OPTION_PROFILE_TOP_K = "profile_top_k";
+    public static final String OPTION_GENERATE_IMAGE_CLASSES = "generate_image_classes";
+    public static final String OPTION_RECORDED_IMAGE_CLASSES = "recorded_image_classes";
+    public static final String OPTION_TASK_TIMEOUT = "task_timeout";
+    public static final String OPTION_XCRUN_PACKAGE = "xcrun_package";
+    public static final String OPTION_REPRODUCIBLE = "reproducible";
+    public static final String OPTION_SHARED_CACHE = "shared_cache";
+    public static final String OPTION_CACHE_APPS = "cache_apps";
+    public static final String OPTION_PLAN = "plan";
+    public static final String OPTION_NO_TELEMETRY = "no_telemetry";
+
+    /*
+    Commands which replace the regular single build
+     */
+    public static final String COMMAND_DAEMON = "daemon";
+    public static final String COMMAND_BATCH = "batch";
+    public static final String COMMAND_MERGE_PROFILES = "merge_profiles";
+    public static final String COMMAND_VERIFY_REPRODUCIBLE = "verify_reproducible";
+    public static final String COMMAND_TELEMETRY_REPORT = "telemetry_report";
 
     public static void main(String args[]) {
 
-        //big TODO: handle exceptions and return code from application
-        // TODO: Decide: use or not to use File.separator
-
-        MOESDK sdk = new MOESDK();
-
-        // create the command line parser
-        CommandLineParser parser = new DefaultParser();
-
-        // TODO: read in separate place: method or class
-        Options options = new Options();
-
-        Option opt_modulePath = Option.builder(OPTION_MOE_MODULE_PATH)
-                .hasArg()
-                .required(true)
-                .desc("Absolute path to unzipped MOE module to build")
-                .build();
-
-        Option opt_dexFiles = Option.builder(OPTION_DEX_FILES)
-                .hasArg()
-                .valueSeparator(',')
-                .required(true)
-                .desc("Comma-separated dex files for dex2oat input. Not includes moe-core.dex and moe-ios-retro.jar")
-                .build();
-
-        Option opt_modeVariant = Option.builder(OPTION_MODE_VARIANT)
-                .hasArg()
-                .required(true)
-                .desc("Release or Debug ")
-                .build();
-
-        Option opt_platformName = Option.builder(OPTION_PLATFORM_NAME)
-                .hasArg()
-                .required(true)
-                .desc("iphoneos or iphonesimulator")
-                .build();
-
-        Option opt_sourceSet = Option.builder(OPTION_SOURCE_SET)
-                .hasArg()
-                .required(true)
-                .desc("main or test")
-                .build();
-
-        Option opt_provisioningProfile = Option.builder(OPTION_PROVISIONING_PROFILE)
-                .hasArg()
-                .required(false)
-                .desc("/Users/<user_name>/Library/MobileDevice/Provisioning Profiles/<ID>.mobileprovision")
-                .build();
-
-        Option opt_signingIdentity = Option.builder(OPTION_SIGNING_IDENTITY)
-                .hasArg()
-                .required(false)
-                .desc("iPhone Developer | iPhone Distributor : <developer name> (<developer ID>)")
-                .build();
-
-        Option opt_productType = Option.builder(PRODUCT_TYPE)
-                .hasArg()
-                .required(false)
-                .desc("app | ipa")
-                .build();
-
-        options.addOption(opt_dexFiles);
-        options.addOption(opt_modulePath);
-        options.addOption(opt_modeVariant);
-        options.addOption(opt_platformName);
-        options.addOption(opt_sourceSet);
-        options.addOption(opt_provisioningProfile);
-        options.addOption(opt_signingIdentity);
-        options.addOption(opt_productType);
-
+        if (args.length > 0 && COMMAND_DAEMON.equals(args[0])) {
+            System.exit(BuildDaemon.run(args));
+        }
+        if (args.length > 0 && COMMAND_BATCH.equals(args[0])) {
+            System.exit(BatchManifest.run(new BuildEnvironment(new MOESDK()), args));
+        }
+        if (args.length > 0 && COMMAND_MERGE_PROFILES.equals(args[0])) {
+            System.exit(MethodProfile.run(args));
+        }
+        if (args.length > 0 && COMMAND_VERIFY_REPRODUCIBLE.equals(args[0])) {
+            System.exit(ReproducibilityCheck.run(new BuildEnvironment(new MOESDK()), args));
+        }
+        if (args.length > 0 && COMMAND_TELEMETRY_REPORT.equals(args[0])) {
+            System.exit(RegressionReport.run(args));
+        }
 
-        String[] dexFilesArray = null;
-        String modulePath = null, mode = null, platform = null, sourceSet = null;
-        String provisioningProfile = null, signingIdentity = null;
-        ProductType productType = ProductType.app;
+        BuildOptions options = null;
         try {
-
-            CommandLine line = parser.parse(options, args);
-
-            dexFilesArray = line.getOptionValues(OPTION_DEX_FILES);
-            modulePath = line.getOptionValue(OPTION_MOE_MODULE_PATH);
-            mode = line.getOptionValue(OPTION_MODE_VARIANT);
-            platform = line.getOptionValue(OPTION_PLATFORM_NAME);
-            sourceSet = line.getOptionValue(OPTION_SOURCE_SET);
-            provisioningProfile = line.getOptionValue(OPTION_PROVISIONING_PROFILE);
-            signingIdentity = line.getOptionValue(OPTION_SIGNING_IDENTITY);
-            productType = ProductType.valueOf(line.getOptionValue(PRODUCT_TYPE));
-
+            options = BuildOptions.parse(args);
         } catch (ParseException exp) {
             System.out.println("Unexpected exception:" + exp.getMessage());
-
-            HelpFormatter formatter = new HelpFormatter();
-            formatter.printHelp("java -jar moeExecutableBuilder.jar", options, true);
-
+            BuildOptions.printHelp();
             System.exit(1);
         }
 
-        ModeVariant modeVariant = null;
-        TargetVariant targetVariant = null;
-        try {
-            modeVariant = ModeVariant.getModeVariant(mode);
-            targetVariant = TargetVariant.getTargetVariantByPlatformName(platform);
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(1);
+        if (options.getDaemonPort() > 0) {
+            System.exit(DaemonClient.send(options.getDaemonPort(), args));
         }
-        Collection<ArchitectureVariant> architectures = ArchitectureVariant.getSupportedArchitectureVariants(targetVariant);
-
-        TaskManager taskManager = new TaskManager();
 
-        try {
-
-            for (ArchitectureVariant arch : architectures) {
-                Dex2oat dex2oat = new Dex2oat(
-                        sdk,
-                        modulePath,
-                        sourceSet,
-                        modeVariant,
-                        dexFilesArray,
-                        arch,
-                        targetVariant
-                );
-                taskManager.addTask(dex2oat);
-            }
-
-            if ((provisioningProfile == null) || provisioningProfile.isEmpty()) {
-                System.err.print("ProvisioningProfile is null or empty.");
-                System.exit(1);
-            }
-            if ((signingIdentity == null) || signingIdentity.isEmpty()) {
-                System.err.print("SigningIdentity is null or empty.");
-                System.exit(1);
-            }
-
-            IBTool ibTask = new IBTool(sourceSet, modulePath);
-            taskManager.addTask(ibTask);
-
-            AppBuild buildApp = new AppBuild(modulePath, modeVariant, targetVariant, signingIdentity, provisioningProfile);
-            taskManager.addTask(buildApp);
-
-            if (productType == ProductType.ipa) {
-                IpaBuild buildIpa = new IpaBuild(buildApp.getAppFile(), buildApp.getOutPath(), provisioningProfile, signingIdentity);
-                taskManager.addTask(buildIpa);
-            }
-
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(1);
+        Builder builder = new Builder(new BuildEnvironment(new MOESDK()));
+        int returnCode = builder.build(options);
+        if (returnCode != 0) {
+            System.exit(returnCode);
         }
-
-        // TODO: is worst to implement mechanism of task dependencies?
-        taskManager.runAll();
     }
 }
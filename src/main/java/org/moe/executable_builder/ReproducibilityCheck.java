@@ -0,0 +1,176 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder;
+
+import org.apache.commons.cli.ParseException;
+import org.moe.executable_builder.helpers.FileHasher;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+import static org.moe.executable_builder.Main.COMMAND_VERIFY_REPRODUCIBLE;
+
+/**
+ * Builds twice from scratch in reproducible mode and reports artifacts which differ between the builds.
+ * Task states and caches are ignored, so every task runs both times.
+ * Files inside output directories, e.g. the app bundle, are compared one by one.
+ */
+public class ReproducibilityCheck {
+
+    private final Builder builder;
+
+    public ReproducibilityCheck(Builder builder) {
+        this.builder = builder;
+    }
+
+    /**
+     * Runs the build twice and compares its outputs.
+     *
+     * @return paths of differing artifacts, empty if the build is reproducible
+     * @throws BuildFailedException if one of the builds fails
+     */
+    public List<String> verify(BuildOptions options) throws IOException {
+        BuildOptions variant = options.forVariant(options.mode, options.platform, options.sourceSet);
+        variant.reproducible = true;
+        variant.rerunTasks = true;
+        variant.dex2oatCacheDir = null;
+        variant.sharedCache = null;
+
+        Map<String, String> first = snapshot(build(variant));
+        Map<String, String> second = snapshot(build(variant));
+
+        Set<String> paths = new TreeSet<String>(first.keySet());
+        paths.addAll(second.keySet());
+
+        List<String> differences = new ArrayList<String>();
+        for (String path : paths) {
+            String firstHash = first.get(path);
+            String secondHash = second.get(path);
+            if (firstHash == null) {
+                differences.add(path + " (only in second build)");
+            } else if (secondHash == null) {
+                differences.add(path + " (only in first build)");
+            } else if (!firstHash.equals(secondHash)) {
+                differences.add(path);
+            }
+        }
+        return differences;
+    }
+
+    private BuildResult build(BuildOptions options) {
+        BuildResult result = builder.run(Collections.singletonList(options));
+        if (!result.isSuccess()) {
+            throw new BuildFailedException(result);
+        }
+        return result;
+    }
+
+    /**
+     * Hashes all output files, files of output directories are listed separately.
+     * Symbolic links are compared by their targets.
+     */
+    private static Map<String, String> snapshot(BuildResult result) throws IOException {
+        // A new hasher for every build, files rewritten within the same second would look unchanged otherwise
+        final FileHasher hasher = new FileHasher();
+        final Map<String, String> hashes = new LinkedHashMap<String, String>();
+        for (File output : result.getOutputs()) {
+            final Path root = output.toPath();
+            if (Files.isSymbolicLink(root)) {
+                hashes.put(output.getAbsolutePath(), "-> " + Files.readSymbolicLink(root));
+            } else if (output.isDirectory()) {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        String path = root.toFile().getAbsolutePath() + File.separator + root.relativize(file);
+                        if (attrs.isSymbolicLink()) {
+                            hashes.put(path, "-> " + Files.readSymbolicLink(file));
+                        } else {
+                            hashes.put(path, hasher.hash(file.toFile()));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } else if (output.isFile()) {
+                hashes.put(output.getAbsolutePath(), hasher.hash(output));
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Thrown when a build of the check fails, the build result tells why.
+     */
+    public static class BuildFailedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BuildResult result;
+
+        BuildFailedException(BuildResult result) {
+            super(result.toString());
+            this.result = result;
+        }
+
+        public BuildResult getResult() {
+            return result;
+        }
+    }
+
+    /**
+     * Entry point of the "verify_reproducible [options]" command, options are those of a regular build.
+     *
+     * @return 0 if both builds gave the same artifacts
+     */
+    public static int run(BuildEnvironment environment, String[] args) {
+        BuildOptions options;
+        try {
+            options = BuildOptions.parse(Arrays.copyOfRange(args, 1, args.length));
+        } catch (ParseException e) {
+            System.out.println("Unexpected exception:" + e.getMessage());
+            System.err.println("Usage: java -jar moeExecutableBuilder.jar " + COMMAND_VERIFY_REPRODUCIBLE + " [options]");
+            BuildOptions.printHelp();
+            return 1;
+        }
+
+        List<String> differences;
+        try {
+            differences = new ReproducibilityCheck(new Builder(environment)).verify(options);
+        } catch (BuildFailedException e) {
+            System.err.println(e.getResult());
+            return e.getResult().getExitCode();
+        } catch (IOException e) {
+            System.err.println("Failed to compare artifacts: " + e.getMessage());
+            return 1;
+        }
+
+        if (differences.isEmpty()) {
+            System.out.println("Build is reproducible");
+            return 0;
+        }
+        System.err.println(differences.size() + " artifact(s) differ between builds:");
+        for (String path : differences) {
+            System.err.println("    " + path);
+        }
+        return 1;
+    }
+}
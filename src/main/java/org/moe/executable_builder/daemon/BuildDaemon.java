@@ -0,0 +1,243 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.daemon;
+
+import org.apache.commons.cli.ParseException;
+import org.moe.common.sdk.MOESDK;
+import org.moe.executable_builder.BatchManifest;
+import org.moe.executable_builder.BuildEnvironment;
+import org.moe.executable_builder.BuildOptions;
+import org.moe.executable_builder.Builder;
+import org.moe.executable_builder.Main;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-lived build server. Keeps the SDK and caches of {@link BuildEnvironment} in memory and
+ * runs builds requested by {@link DaemonClient} over a loopback socket. Builds run concurrently,
+ * builds of the same module work in separate directories per configuration. Only clients which
+ * present the token of the daemon, readable by its user only, are served (see {@link DaemonToken}).
+ * <p>
+ * Request: token, working directory of the client, number of arguments and the arguments, all strings in
+ * modified UTF-8, the same arguments as on the command line. Relative paths are resolved against the working
+ * directory of the client, so a build behaves the same with and without the daemon.
+ * Response: sequence of output frames (channel, length, bytes) terminated by the exit frame (channel, exit code).
+ */
+public class BuildDaemon {
+
+    public static final String HOST = "127.0.0.1";
+    public static final int DEFAULT_PORT = 9517;
+
+    static final int CHANNEL_EXIT = 0;
+    static final int CHANNEL_STDOUT = 1;
+    static final int CHANNEL_STDERR = 2;
+
+    /*
+    Time a client has to send its request, connections of unauthorized clients aren't kept open
+     */
+    private static final int REQUEST_TIMEOUT_MILLIS = 10000;
+
+    private final BuildEnvironment environment;
+
+    private final ThreadRoutedOutputStream stdout;
+
+    private final ThreadRoutedOutputStream stderr;
+
+    private String token;
+
+    public BuildDaemon(BuildEnvironment environment) {
+        this.environment = environment;
+        this.stdout = new ThreadRoutedOutputStream(System.out);
+        this.stderr = new ThreadRoutedOutputStream(System.err);
+    }
+
+    /**
+     * Entry point of the "daemon [port]" command.
+     */
+    public static int run(String[] args) {
+        int port = DEFAULT_PORT;
+        if (args.length > 1) {
+            try {
+                port = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid daemon port: " + args[1]);
+                return 1;
+            }
+        }
+
+        try {
+            new BuildDaemon(new BuildEnvironment(new MOESDK())).serve(port);
+        } catch (IOException e) {
+            System.err.println("Build daemon failed: " + e.getMessage());
+            return 1;
+        }
+        return 0;
+    }
+
+    public void serve(int port) throws IOException {
+        System.setOut(new PrintStream(stdout, true));
+        System.setErr(new PrintStream(stderr, true));
+
+        ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getByName(HOST));
+        ExecutorService executor = Executors.newCachedThreadPool();
+
+        // Written only once the port is ours, a token of another daemon on the port is never replaced
+        try {
+            token = DaemonToken.create(port);
+        } catch (IOException e) {
+            serverSocket.close();
+            throw new IOException("Failed to write daemon token: " + e.getMessage(), e);
+        }
+        System.out.println("Build daemon is listening on " + HOST + ":" + port);
+
+        try {
+            while (true) {
+                final Socket socket = serverSocket.accept();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(socket);
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            serverSocket.close();
+            DaemonToken.delete(port, token);
+        }
+    }
+
+    private void handle(Socket socket) {
+        try {
+            socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            if (!DaemonToken.matches(token, in.readUTF())) {
+                byte[] message = "Invalid build daemon token\n".getBytes("UTF-8");
+                out.writeByte(CHANNEL_STDERR);
+                out.writeInt(message.length);
+                out.write(message);
+                out.writeByte(CHANNEL_EXIT);
+                out.writeInt(1);
+                out.flush();
+                return;
+            }
+
+            File workingDir = new File(in.readUTF());
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+            // Builds take as long as they take
+            socket.setSoTimeout(0);
+
+            stdout.route(new FrameOutputStream(out, CHANNEL_STDOUT));
+            stderr.route(new FrameOutputStream(out, CHANNEL_STDERR));
+
+            int returnCode;
+            try {
+                returnCode = build(args, workingDir);
+            } catch (Throwable e) {
+                e.printStackTrace();
+                returnCode = 1;
+            } finally {
+                System.out.flush();
+                System.err.flush();
+                stdout.reset();
+                stderr.reset();
+            }
+
+            synchronized (out) {
+                out.writeByte(CHANNEL_EXIT);
+                out.writeInt(returnCode);
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to handle build request: " + e.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private int build(String[] args, File workingDir) {
+        if (args.length > 0 && Main.COMMAND_BATCH.equals(args[0])) {
+            return BatchManifest.run(environment, args, workingDir);
+        }
+
+        BuildOptions options;
+        try {
+            options = BuildOptions.parse(args, workingDir);
+        } catch (ParseException exp) {
+            System.out.println("Unexpected exception:" + exp.getMessage());
+            BuildOptions.printHelp();
+            return 1;
+        }
+        return new Builder(environment).build(options);
+    }
+
+    /**
+     * Wraps written data into frames of the given channel.
+     */
+    private static class FrameOutputStream extends OutputStream {
+
+        private final DataOutputStream out;
+
+        private final int channel;
+
+        FrameOutputStream(DataOutputStream out, int channel) {
+            this.out = out;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (out) {
+                out.writeByte(channel);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
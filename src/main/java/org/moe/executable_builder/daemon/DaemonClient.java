@@ -0,0 +1,89 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Sends a build request to a running {@link BuildDaemon} of the same user and prints its output.
+ */
+public class DaemonClient {
+
+    public static int send(int port, String[] args) {
+        Socket socket = null;
+        try {
+            String token = DaemonToken.read(port);
+            if (token == null) {
+                System.err.println("No build daemon of this user is running on port " + port + " (" +
+                        DaemonToken.getFile(port).getAbsolutePath() + " doesn't exist)");
+                return 1;
+            }
+            socket = new Socket(InetAddress.getByName(BuildDaemon.HOST), port);
+
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(token);
+            // Relative paths of the arguments are resolved by the daemon
+            out.writeUTF(new File("").getAbsolutePath());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] buffer = new byte[8192];
+            while (true) {
+                int channel = in.readByte();
+                if (channel == BuildDaemon.CHANNEL_EXIT) {
+                    return in.readInt();
+                }
+
+                OutputStream target = channel == BuildDaemon.CHANNEL_STDERR ? System.err : System.out;
+                int length = in.readInt();
+                while (length > 0) {
+                    int read = in.read(buffer, 0, Math.min(buffer.length, length));
+                    if (read < 0) {
+                        throw new EOFException();
+                    }
+                    target.write(buffer, 0, read);
+                    length -= read;
+                }
+                target.flush();
+            }
+        } catch (EOFException e) {
+            System.err.println("Connection to build daemon was closed unexpectedly");
+            return 1;
+        } catch (IOException e) {
+            System.err.println("Failed to communicate with build daemon on port " + port + ": " + e.getMessage());
+            return 1;
+        } finally {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
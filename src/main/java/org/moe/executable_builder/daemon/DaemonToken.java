@@ -0,0 +1,129 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.daemon;
+
+import org.moe.executable_builder.task.BaseTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Secret shared by the daemon and clients of the same user. The daemon writes a random token to a file
+ * only its owner can read, ~/.moe/daemon/port-&lt;port&gt;.token, and serves only requests which present it.
+ * Other users of the machine can connect to the loopback port but can't start builds.
+ */
+class DaemonToken {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int TOKEN_BYTES = 32;
+
+    static File getFile(int port) {
+        return new File(System.getProperty("user.home"), "." + BaseTask.MOE + File.separator + "daemon" +
+                File.separator + "port-" + port + ".token");
+    }
+
+    /**
+     * Generates a new token of the daemon listening on the port and stores it for clients.
+     */
+    static String create(int port) throws IOException {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder token = new StringBuilder(TOKEN_BYTES * 2);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xF, 16));
+            token.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        Path file = getFile(port).toPath();
+        Path dir = file.getParent();
+        createPrivateDirectory(dir);
+        // Written aside and moved, the token is never readable with wider permissions or half written
+        Path temp = dir.resolve(file.getFileName() + ".tmp" + System.nanoTime());
+        createPrivateFile(temp);
+        try {
+            Files.write(temp, token.toString().getBytes(UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return token.toString();
+    }
+
+    /**
+     * Reads token of the daemon listening on the port, null if there is none.
+     */
+    static String read(int port) throws IOException {
+        File file = getFile(port);
+        if (!file.isFile()) {
+            return null;
+        }
+        return new String(Files.readAllBytes(file.toPath()), UTF_8).trim();
+    }
+
+    static void delete(int port, String token) {
+        try {
+            // Another daemon may have taken the port since, its token stays
+            if (token.equals(read(port))) {
+                Files.deleteIfExists(getFile(port).toPath());
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Compares tokens in constant time.
+     */
+    static boolean matches(String expected, String actual) {
+        return actual != null && MessageDigest.isEqual(expected.getBytes(UTF_8), actual.getBytes(UTF_8));
+    }
+
+    private static void createPrivateDirectory(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        if (isPosix(dir)) {
+            Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwx------"));
+        } else {
+            restrict(dir.toFile());
+        }
+    }
+
+    private static void createPrivateFile(Path file) throws IOException {
+        if (isPosix(file.getParent())) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            restrict(Files.createFile(file).toFile());
+        }
+    }
+
+    private static boolean isPosix(Path path) throws IOException {
+        return Files.getFileStore(path).supportsFileAttributeView("posix");
+    }
+
+    private static void restrict(File file) {
+        file.setReadable(false, false);
+        file.setReadable(true, true);
+        file.setWritable(false, false);
+        file.setWritable(true, true);
+    }
+}
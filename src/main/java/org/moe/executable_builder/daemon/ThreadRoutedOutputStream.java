@@ -0,0 +1,86 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.daemon;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream which forwards data to a stream set for the current thread and threads started
+ * from it, or to the fallback stream. Used to send output of every build to its own client.
+ * <p>
+ * A route ends with its build: threads started during the build and outliving it, e.g. pooled
+ * workers or log writers, write to the fallback stream once the route is reset.
+ */
+public class ThreadRoutedOutputStream extends OutputStream {
+
+    private final OutputStream fallback;
+
+    private final InheritableThreadLocal<Route> target = new InheritableThreadLocal<Route>();
+
+    public ThreadRoutedOutputStream(OutputStream fallback) {
+        this.fallback = fallback;
+    }
+
+    public void route(OutputStream stream) {
+        target.set(new Route(stream));
+    }
+
+    /**
+     * Ends the route of the current thread, for threads which inherited it as well.
+     */
+    public void reset() {
+        Route route = target.get();
+        if (route != null) {
+            route.stream = null;
+        }
+        target.remove();
+    }
+
+    private OutputStream current() {
+        Route route = target.get();
+        OutputStream stream = route != null ? route.stream : null;
+        return stream != null ? stream : fallback;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        current().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        current().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        current().flush();
+    }
+
+    /**
+     * Route shared by the thread which set it and the threads it started.
+     */
+    private static class Route {
+
+        volatile OutputStream stream;
+
+        Route(OutputStream stream) {
+            this.stream = stream;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.exec;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line of a child process with its working directory and environment.
+ */
+public class Command {
+
+    private final String executable;
+
+    private final ArrayList<String> arguments = new ArrayList<String>();
+
+    private final Map<String, String> environment = new LinkedHashMap<String, String>();
+
+    private File directory;
+
+    private boolean mergeErrors;
+
+    public Command(String executable) {
+        this.executable = executable;
+    }
+
+    public String getExecutable() {
+        return executable;
+    }
+
+    public ArrayList<String> getArguments() {
+        return arguments;
+    }
+
+    /**
+     * Returns variables added to the environment inherited from the builder.
+     */
+    public Map<String, String> getEnvironment() {
+        return environment;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Sets working directory, null keeps the one of the builder.
+     */
+    public Command setDirectory(File directory) {
+        this.directory = directory;
+        return this;
+    }
+
+    public boolean isMergeErrors() {
+        return mergeErrors;
+    }
+
+    /**
+     * Delivers stderr as stdout. Both are read from one pipe then, directly by the executing thread;
+     * use it when the listener doesn't tell them apart anyway, e.g. when both go to a log file.
+     */
+    public Command setMergeErrors(boolean mergeErrors) {
+        this.mergeErrors = mergeErrors;
+        return this;
+    }
+
+    public List<String> toList() {
+        List<String> list = new ArrayList<String>(arguments.size() + 1);
+        list.add(executable);
+        list.addAll(arguments);
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(executable);
+        for (String argument : arguments) {
+            builder.append(' ').append(argument);
+        }
+        return builder.toString();
+    }
+}
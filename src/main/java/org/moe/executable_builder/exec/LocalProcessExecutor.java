@@ -0,0 +1,266 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.exec;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Launches child processes on this machine.
+ * <p>
+ * A merged pipe (see {@link Command#setMergeErrors}) is read by the calling thread. Separate pipes are
+ * read by pooled threads which pass lines through a bounded queue, listeners are always called on the
+ * calling thread. Kill conditions of all running processes are checked by a single watchdog thread.
+ * Output is split into lines through fixed size buffers and is never collected, longer lines are
+ * delivered in pieces, so a chatty compiler can't grow the heap of the builder.
+ */
+public class LocalProcessExecutor implements ProcessExecutor {
+
+    private static final LocalProcessExecutor DEFAULT = new LocalProcessExecutor();
+
+    private static final long WATCH_MILLIS = 100;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    static final int MAX_LINE_LENGTH = 16 * 1024;
+
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+            new DaemonThreadFactory("process-watchdog"));
+
+    /*
+    Lines read but not delivered yet, readers wait when the listener falls behind
+     */
+    private static final int QUEUE_SIZE = 1024;
+
+    private final ExecutorService readers = Executors.newCachedThreadPool(
+            new DaemonThreadFactory("process-reader"));
+
+    /**
+     * Returns executor shared by all builds of the JVM.
+     */
+    public static LocalProcessExecutor getDefault() {
+        return DEFAULT;
+    }
+
+    @Override
+    public int execute(Command command, final OutputListener listener, final KillCondition killCondition) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(command.toList());
+        if (command.getDirectory() != null) {
+            builder.directory(command.getDirectory());
+        }
+        builder.environment().putAll(command.getEnvironment());
+        builder.redirectErrorStream(command.isMergeErrors());
+
+        final Process process = builder.start();
+        boolean exited = false;
+        Future<Void> output = null;
+        Future<Void> errors = null;
+        ScheduledFuture<?> watch = null;
+        try {
+            // Children never read stdin, an open pipe would only make some of them wait for input
+            process.getOutputStream().close();
+
+            if (killCondition != null) {
+                watch = watchdog.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (killCondition.needsKill()) {
+                            process.destroy();
+                        }
+                    }
+                }, WATCH_MILLIS, WATCH_MILLIS, TimeUnit.MILLISECONDS);
+            }
+
+            if (command.isMergeErrors()) {
+                pump(process.getInputStream(), false, listener);
+            } else {
+                BlockingQueue<Line> lines = new ArrayBlockingQueue<Line>(QUEUE_SIZE);
+                output = readers.submit(new Reader(process.getInputStream(), false, lines));
+                errors = readers.submit(new Reader(process.getErrorStream(), true, lines));
+                for (int open = 2; open > 0; ) {
+                    Line line = lines.take();
+                    if (line == Line.END) {
+                        open--;
+                    } else if (line.errors) {
+                        listener.stderr(line.text);
+                    } else {
+                        listener.stdout(line.text);
+                    }
+                }
+                await(output);
+                await(errors);
+            }
+            int exitCode = process.waitFor();
+            exited = true;
+            return exitCode;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + command.getExecutable());
+        } finally {
+            if (watch != null) {
+                watch.cancel(false);
+            }
+            if (!exited) {
+                process.destroy();
+            }
+            // Readers may wait for a queue nobody takes from anymore
+            if (output != null) {
+                output.cancel(true);
+            }
+            if (errors != null) {
+                errors.cancel(true);
+            }
+        }
+    }
+
+    private static void await(Future<Void> future) throws IOException, InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to read output: " + cause, cause);
+        }
+    }
+
+    /**
+     * Reads the stream until its end and delivers it line by line.
+     */
+    static void pump(InputStream input, boolean errors, OutputListener listener) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        try {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                int start = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        line.write(buffer, start, i - start);
+                        deliver(line, errors, listener);
+                        start = i + 1;
+                    } else if (line.size() + i - start >= MAX_LINE_LENGTH) {
+                        line.write(buffer, start, i - start);
+                        deliver(line, errors, listener);
+                        start = i;
+                    }
+                }
+                line.write(buffer, start, read - start);
+            }
+            if (line.size() > 0) {
+                deliver(line, errors, listener);
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void deliver(ByteArrayOutputStream line, boolean errors, OutputListener listener) throws IOException {
+        String text = line.toString("UTF-8");
+        line.reset();
+        if (text.endsWith("\r")) {
+            text = text.substring(0, text.length() - 1);
+        }
+        if (errors) {
+            listener.stderr(text);
+        } else {
+            listener.stdout(text);
+        }
+    }
+
+    private static class Line {
+
+        static final Line END = new Line(false, null);
+
+        final boolean errors;
+
+        final String text;
+
+        Line(boolean errors, String text) {
+            this.errors = errors;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Reads a pipe into the queue, the end of the pipe is marked with {@link Line#END} even on failure.
+     */
+    private static class Reader implements Callable<Void>, OutputListener {
+
+        private final InputStream input;
+
+        private final boolean errors;
+
+        private final BlockingQueue<Line> lines;
+
+        Reader(InputStream input, boolean errors, BlockingQueue<Line> lines) {
+            this.input = input;
+            this.errors = errors;
+            this.lines = lines;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                pump(input, errors, this);
+            } finally {
+                lines.put(Line.END);
+            }
+            return null;
+        }
+
+        @Override
+        public void stdout(String line) {
+            put(new Line(false, line));
+        }
+
+        @Override
+        public void stderr(String line) {
+            put(new Line(true, line));
+        }
+
+        private void put(Line line) {
+            try {
+                lines.put(line);
+            } catch (InterruptedException e) {
+                // Delivery was abandoned, the executing thread doesn't wait for this reader anymore
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Output delivery was cancelled");
+            }
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String name;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
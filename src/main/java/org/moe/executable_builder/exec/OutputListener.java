@@ -0,0 +1,29 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.exec;
+
+/**
+ * Receives output of a child process line by line, as it is produced.
+ * Methods are called on the thread which executes the process, so output routed per thread
+ * (e.g. to a daemon client) reaches the right place.
+ */
+public interface OutputListener {
+
+    void stdout(String line);
+
+    void stderr(String line);
+}
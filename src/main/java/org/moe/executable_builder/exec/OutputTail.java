@@ -0,0 +1,71 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.exec;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Forwards output to another listener and keeps its last lines, e.g. for the message of a failure.
+ * Memory is bounded by the number of lines and their total length, older lines are dropped.
+ */
+public class OutputTail implements OutputListener {
+
+    private final OutputListener delegate;
+
+    private final int maxLines;
+
+    private final int maxChars;
+
+    private final ArrayDeque<String> lines = new ArrayDeque<String>();
+
+    private int chars;
+
+    public OutputTail(OutputListener delegate, int maxLines, int maxChars) {
+        this.delegate = delegate;
+        this.maxLines = maxLines;
+        this.maxChars = maxChars;
+    }
+
+    @Override
+    public void stdout(String line) {
+        delegate.stdout(line);
+        add(line);
+    }
+
+    @Override
+    public void stderr(String line) {
+        delegate.stderr(line);
+        add(line);
+    }
+
+    private synchronized void add(String line) {
+        if (line.length() > maxChars) {
+            line = line.substring(line.length() - maxChars);
+        }
+        lines.addLast(line);
+        chars += line.length();
+        while (lines.size() > maxLines || chars > maxChars) {
+            chars -= lines.removeFirst().length();
+        }
+    }
+
+    public synchronized List<String> getLines() {
+        return new ArrayList<String>(lines);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.exec;
+
+import java.io.IOException;
+
+/**
+ * Runs child processes of tasks. Tasks get the executor from the build environment,
+ * tests replace it with one which doesn't launch anything.
+ */
+public interface ProcessExecutor {
+
+    /**
+     * Decides whether a running process has to be killed, e.g. because its task was cancelled.
+     */
+    interface KillCondition {
+
+        boolean needsKill();
+    }
+
+    /**
+     * Runs the command and waits until it exits, output is streamed to the listener.
+     *
+     * @param killCondition checked while the process runs, null never kills it
+     * @return exit code of the process
+     * @throws IOException if the process couldn't be launched or its output read
+     */
+    int execute(Command command, OutputListener listener, KillCondition killCondition) throws IOException;
+}
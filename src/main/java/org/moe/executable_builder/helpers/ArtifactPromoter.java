@@ -0,0 +1,106 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.helpers;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Publishes build artifacts so that readers never see a partially written file or bundle.
+ */
+public class ArtifactPromoter {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String OLD_SUFFIX = ".old";
+
+    /**
+     * Copies a file or directory (e.g. an .app bundle) to the target location. The copy is made
+     * next to the target and renamed over it: files are replaced atomically, directories are
+     * swapped by two renames.
+     */
+    public static void promote(File source, File target) throws IOException {
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create " + parent.getAbsolutePath());
+        }
+
+        long unique = System.nanoTime();
+        File temp = new File(parent, target.getName() + TEMP_SUFFIX + unique);
+        try {
+            if (source.isDirectory()) {
+                copyTree(source.toPath(), temp.toPath());
+                replaceDirectory(temp, target, new File(parent, target.getName() + OLD_SUFFIX + unique));
+            } else {
+                Files.copy(source.toPath(), temp.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            FileUtils.deleteQuietly(temp);
+        }
+    }
+
+    /**
+     * Moves a freshly written file over the target atomically.
+     */
+    public static void replace(File temp, File target) throws IOException {
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Copies a directory tree keeping symbolic links and file attributes, executables of bundles stay executable.
+     */
+    private static void copyTree(final Path source, final Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.copy(dir, target.resolve(source.relativize(dir).toString()), StandardCopyOption.COPY_ATTRIBUTES);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file).toString()),
+                        StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void replaceDirectory(File temp, File target, File old) throws IOException {
+        if (target.exists() && !target.renameTo(old)) {
+            throw new IOException("Failed to move " + target.getAbsolutePath() + " away");
+        }
+        try {
+            if (!temp.renameTo(target)) {
+                // Put the previous version back rather than leaving nothing
+                old.renameTo(target);
+                throw new IOException("Failed to move " + temp.getAbsolutePath() + " to " + target.getAbsolutePath());
+            }
+        } finally {
+            FileUtils.deleteQuietly(old);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.helpers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Log file writer which never blocks the producer. Lines are put into a bounded ring buffer
+ * and written to the file in batches by a background thread of the sink. When the buffer is full,
+ * because the disk can't keep up, new lines are dropped. Their number is written to the log in
+ * place of the gap, so the log shows where lines are missing.
+ */
+public class AsyncLogSink implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    private final File file;
+
+    private final String[] ring;
+
+    private int head;
+
+    private int count;
+
+    private long dropped;
+
+    private boolean closed;
+
+    private IOException failure;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final FileChannel channel;
+
+    private final GZIPOutputStream gzip;
+
+    private final CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final Thread writer;
+
+    public AsyncLogSink(File file, boolean compress) throws IOException {
+        this(file, compress, DEFAULT_CAPACITY);
+    }
+
+    public AsyncLogSink(File file, boolean compress, int capacity) throws IOException {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2, a gap needs a slot for its marker");
+        }
+        this.file = file;
+        this.ring = new String[capacity];
+        this.channel = new FileOutputStream(file).getChannel();
+        this.gzip = compress ? new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE) : null;
+
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "log-" + file.getName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Queues a line for writing.
+     *
+     * @return false if the line was dropped because the buffer is full or the sink is closed
+     */
+    public boolean append(String line) {
+        lock.lock();
+        try {
+            // The first line after a gap needs room for the marker of the gap as well
+            if (closed || ring.length - count < (dropped > 0 ? 2 : 1)) {
+                dropped++;
+                return false;
+            }
+            if (dropped > 0) {
+                enqueue(getDropMarker(dropped));
+                dropped = 0;
+            }
+            enqueue(line);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(String line) {
+        ring[(head + count) % ring.length] = line;
+        count++;
+    }
+
+    private static String getDropMarker(long droppedLines) {
+        return "[" + droppedLines + " line(s) dropped, log writer could not keep up]";
+    }
+
+    /**
+     * Writes all queued lines and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void drain() {
+        String[] batch = new String[Math.min(ring.length, 1024)];
+        try {
+            while (true) {
+                int size;
+                long droppedLines;
+                boolean finished;
+
+                lock.lock();
+                try {
+                    while (count == 0 && !closed) {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    size = Math.min(count, batch.length);
+                    for (int i = 0; i < size; i++) {
+                        batch[i] = ring[head];
+                        ring[head] = null;
+                        head = (head + 1) % ring.length;
+                    }
+                    count -= size;
+                    finished = closed && count == 0;
+                    droppedLines = finished ? dropped : 0;
+                } finally {
+                    lock.unlock();
+                }
+
+                for (int i = 0; i < size; i++) {
+                    write(batch[i]);
+                    write(LINE_SEPARATOR);
+                    batch[i] = null;
+                }
+                // Gap at the end of the log, no line followed it
+                if (droppedLines > 0) {
+                    write(getDropMarker(droppedLines) + LINE_SEPARATOR);
+                }
+                flushBuffer();
+
+                if (finished) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            // Unblock producers, nothing will be written anymore
+            lock.lock();
+            try {
+                closed = true;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            try {
+                if (gzip != null) {
+                    gzip.close();
+                } else {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    private void write(String text) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                flushBuffer();
+            } else {
+                break;
+            }
+        }
+        encoder.reset();
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        if (gzip != null) {
+            gzip.write(buffer.array(), buffer.position(), buffer.remaining());
+        } else {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        buffer.clear();
+    }
+}
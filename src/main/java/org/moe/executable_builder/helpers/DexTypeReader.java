@@ -0,0 +1,148 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.helpers;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads names of all types referenced by dex files, directly or packed in jars.
+ * Only the string_ids and type_ids tables of the dex format are parsed.
+ */
+public class DexTypeReader {
+
+    private static final String DEX_MAGIC = "dex\n";
+
+    private static final int HEADER_SIZE = 0x70;
+    private static final int STRING_IDS_SIZE_OFFSET = 0x38;
+    private static final int TYPE_IDS_SIZE_OFFSET = 0x40;
+
+    /**
+     * Returns class names of types referenced by a dex file or by all dex files of a jar,
+     * in the dotted form used by image-classes lists, e.g. java.lang.String or [Ljava.lang.Object;
+     */
+    public static Set<String> readClassNames(File file) throws IOException {
+        Set<String> names = new TreeSet<String>();
+        if (file.getName().endsWith(".dex")) {
+            readClassNames(readFully(new FileInputStream(file), (int) file.length()), file.getPath(), names);
+            return names;
+        }
+
+        ZipFile zip = new ZipFile(file);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.getName().endsWith(".dex")) {
+                    byte[] dex = readFully(zip.getInputStream(entry), (int) entry.getSize());
+                    readClassNames(dex, file.getPath() + "!" + entry.getName(), names);
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return names;
+    }
+
+    private static byte[] readFully(InputStream input, int size) throws IOException {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(size > 0 ? size : 64 * 1024);
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void readClassNames(byte[] dex, String location, Set<String> names) throws IOException {
+        if (dex.length < HEADER_SIZE || !DEX_MAGIC.equals(new String(dex, 0, 4, "US-ASCII"))) {
+            throw new IOException("Not a dex file: " + location);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(dex).order(ByteOrder.LITTLE_ENDIAN);
+        int stringIdsSize = buffer.getInt(STRING_IDS_SIZE_OFFSET);
+        int stringIdsOffset = buffer.getInt(STRING_IDS_SIZE_OFFSET + 4);
+        int typeIdsSize = buffer.getInt(TYPE_IDS_SIZE_OFFSET);
+        int typeIdsOffset = buffer.getInt(TYPE_IDS_SIZE_OFFSET + 4);
+
+        try {
+            for (int i = 0; i < typeIdsSize; i++) {
+                int descriptorIndex = buffer.getInt(typeIdsOffset + i * 4);
+                if (descriptorIndex < 0 || descriptorIndex >= stringIdsSize) {
+                    throw new IOException("Invalid type descriptor index in " + location);
+                }
+                int stringOffset = buffer.getInt(stringIdsOffset + descriptorIndex * 4);
+                String name = toClassName(readString(dex, stringOffset));
+                if (name != null) {
+                    names.add(name);
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated dex file: " + location);
+        }
+    }
+
+    /**
+     * Reads string_data_item: uleb128 length in UTF-16 code units followed by zero terminated MUTF-8.
+     * Type descriptors are ASCII in practice, other characters are decoded as modified UTF-8.
+     */
+    private static String readString(byte[] dex, int offset) {
+        int position = offset;
+        while ((dex[position] & 0x80) != 0) {
+            position++;
+        }
+        position++;
+
+        StringBuilder builder = new StringBuilder();
+        while (dex[position] != 0) {
+            int b = dex[position++] & 0xFF;
+            if (b < 0x80) {
+                builder.append((char) b);
+            } else if ((b & 0xE0) == 0xC0) {
+                builder.append((char) (((b & 0x1F) << 6) | (dex[position++] & 0x3F)));
+            } else {
+                int second = dex[position++] & 0x3F;
+                int third = dex[position++] & 0x3F;
+                builder.append((char) (((b & 0x0F) << 12) | (second << 6) | third));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Converts type descriptor to the dotted class name, returns null for primitive types.
+     */
+    static String toClassName(String descriptor) {
+        if (descriptor.startsWith("L") && descriptor.endsWith(";")) {
+            return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+        }
+        if (descriptor.startsWith("[")) {
+            return descriptor.replace('/', '.');
+        }
+        return null;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.helpers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Computes content hashes of files. Hashes are remembered together with size and
+ * modification time of the file, so unchanged files are read only once.
+ */
+public class FileHasher {
+
+    private static final String ALGORITHM = "SHA-256";
+
+    private final ConcurrentHashMap<String, Entry> hashes = new ConcurrentHashMap<String, Entry>();
+
+    public String hash(File file) throws IOException {
+        final String path = file.getAbsolutePath();
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+
+        Entry entry = hashes.get(path);
+        if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+            return entry.hash;
+        }
+
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        InputStream input = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+
+        String hash = toHex(digest.digest());
+        hashes.put(path, new Entry(length, lastModified, hash));
+        return hash;
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(ALGORITHM + " is not supported", e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    private static class Entry {
+
+        final long length;
+        final long lastModified;
+        final String hash;
+
+        Entry(long length, long lastModified, String hash) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+}
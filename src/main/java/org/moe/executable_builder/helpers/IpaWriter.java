@@ -0,0 +1,577 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an .ipa archive: the app bundle under Payload/ in a zip file.
+ * <p>
+ * Small entries are deflated in parallel and written in order, large ones are deflated while
+ * streaming to the archive. Files which are compressed already are stored as they are.
+ * Unix permissions and symbolic links are kept in the external attributes of entries.
+ * Entries are sorted by name, so the same tree with the same timestamps gives the same archive.
+ */
+public class IpaWriter {
+
+    public static final String PAYLOAD = "Payload/";
+
+    /**
+     * 1980-01-01T00:00:00Z, the earliest time MS-DOS dates can hold.
+     */
+    private static final long DOS_EPOCH = 315532800000L;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+
+    private static final int VERSION_NEEDED = 20;
+    // Made by Unix, external attributes hold the file mode
+    private static final int VERSION_MADE_BY = (3 << 8) | 20;
+    private static final int FLAG_UTF_8 = 1 << 11;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFDIR = 0040000;
+    private static final int S_IFREG = 0100000;
+    private static final int S_IFLNK = 0120000;
+
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+
+    /*
+    Entries up to this size are deflated in memory by workers, bigger ones are streamed
+     */
+    private static final long STREAMING_THRESHOLD = 8 * 1024 * 1024;
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<String>(Arrays.asList(
+            "png", "jpg", "jpeg", "gif", "zip", "ipa", "jar", "gz", "tgz", "bz2", "xz", "7z",
+            "mp3", "mp4", "m4a", "m4v", "mov", "aac", "webp", "heic"));
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    private long timestamp = -1;
+
+    private TimeZone timeZone = TimeZone.getDefault();
+
+    /**
+     * Sets number of threads deflating entries.
+     */
+    public IpaWriter setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    public IpaWriter setLevel(int level) {
+        this.level = level;
+        return this;
+    }
+
+    /**
+     * Sets modification time of all entries, -1 keeps times of the files.
+     * A fixed time is stored in UTC, so the archive doesn't depend on the time zone of the machine.
+     */
+    public IpaWriter setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+        this.timeZone = timestamp >= 0 ? TimeZone.getTimeZone("UTC") : TimeZone.getDefault();
+        return this;
+    }
+
+    /**
+     * Returns entry time of reproducible archives: SOURCE_DATE_EPOCH when set, 1980-01-01 otherwise.
+     */
+    public static long getReproducibleTimestamp() {
+        String epoch = System.getenv("SOURCE_DATE_EPOCH");
+        if (epoch != null && !epoch.trim().isEmpty()) {
+            try {
+                return Math.max(DOS_EPOCH, Long.parseLong(epoch.trim()) * 1000);
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring invalid SOURCE_DATE_EPOCH: " + epoch);
+            }
+        }
+        return DOS_EPOCH;
+    }
+
+    /**
+     * Writes the app bundle to the ipa file, the file is replaced only when complete.
+     */
+    public void write(File app, File ipa) throws IOException {
+        List<Entry> entries = collect(app.toPath(), PAYLOAD + app.getName() + "/");
+
+        File parent = ipa.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        File temp = File.createTempFile(ipa.getName(), ".tmp", parent);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ipa-deflate");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            RandomAccessFile file = new RandomAccessFile(temp, "rw");
+            try {
+                file.setLength(0);
+                new Archive(file.getChannel(), executor).write(entries);
+            } finally {
+                file.close();
+            }
+            ArtifactPromoter.replace(temp, ipa);
+        } finally {
+            executor.shutdownNow();
+            temp.delete();
+        }
+    }
+
+    private List<Entry> collect(final Path root, final String prefix) throws IOException {
+        final List<Entry> entries = new ArrayList<Entry>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                entries.add(new Entry(name(dir) + (dir.equals(root) ? "" : "/"), dir, S_IFDIR | mode(dir, 0755),
+                        time(attrs), false));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isSymbolicLink()) {
+                    entries.add(new Entry(name(file), file, S_IFLNK | mode(file, 0777), time(attrs), true));
+                } else {
+                    entries.add(new Entry(name(file), file, S_IFREG | mode(file, 0644), time(attrs), false));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            private String name(Path path) {
+                String relative = root.relativize(path).toString().replace(File.separatorChar, '/');
+                return relative.isEmpty() ? prefix : prefix + relative;
+            }
+        });
+
+        // Payload/ directory itself
+        entries.add(new Entry(PAYLOAD, null, S_IFDIR | 0755, entries.get(0).time, false));
+
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.name.compareTo(b.name);
+            }
+        });
+        return entries;
+    }
+
+    private long time(BasicFileAttributes attrs) {
+        return timestamp >= 0 ? timestamp : attrs.lastModifiedTime().toMillis();
+    }
+
+    private static int mode(Path path, int fallback) throws IOException {
+        try {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS);
+            int mode = 0;
+            for (PosixFilePermission permission : permissions) {
+                mode |= 1 << (8 - permission.ordinal());
+            }
+            return mode;
+        } catch (UnsupportedOperationException e) {
+            return fallback;
+        }
+    }
+
+    private boolean isCompressed(Entry entry) {
+        String name = entry.name;
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && name.indexOf('/', dot) < 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.US));
+    }
+
+    /**
+     * Entry and the data written for it.
+     */
+    private static class Entry {
+
+        final String name;
+        final Path path;
+        final int mode;
+        final long time;
+        final boolean symlink;
+
+        int method = STORED;
+        long crc;
+        long size;
+        long compressedSize;
+        long offset;
+
+        Entry(String name, Path path, int mode, long time, boolean symlink) {
+            this.name = name;
+            this.path = path;
+            this.mode = mode;
+            this.time = time;
+            this.symlink = symlink;
+        }
+
+        boolean isDirectory() {
+            return (mode & S_IFMT) == S_IFDIR;
+        }
+    }
+
+    /**
+     * Compressed data of an entry prepared by a worker.
+     */
+    private static class Data {
+
+        final byte[] bytes;
+        final int length;
+
+        Data(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+    }
+
+    private class Archive {
+
+        private final FileChannel channel;
+        private final ExecutorService executor;
+
+        Archive(FileChannel channel, ExecutorService executor) {
+            this.channel = channel;
+            this.executor = executor;
+        }
+
+        void write(List<Entry> entries) throws IOException {
+            // Workers run ahead of the writer by a bounded number of entries
+            int window = threads * 4;
+            LinkedList<Future<Data>> pending = new LinkedList<Future<Data>>();
+            int next = 0;
+
+            for (int i = 0; i < entries.size(); i++) {
+                while (next < entries.size() && pending.size() < window) {
+                    pending.add(prepare(entries.get(next++)));
+                }
+
+                Entry entry = entries.get(i);
+                Data data = await(pending.removeFirst());
+                if (data != null) {
+                    writeLocalHeader(entry);
+                    writeFully(ByteBuffer.wrap(data.bytes, 0, data.length));
+                } else {
+                    writeStreamed(entry);
+                }
+            }
+
+            long centralStart = channel.position();
+            for (Entry entry : entries) {
+                writeCentralHeader(entry);
+            }
+            writeEnd(entries.size(), centralStart, channel.position() - centralStart);
+        }
+
+        /**
+         * Returns future of the entry data, or of null if the entry has to be streamed.
+         */
+        private Future<Data> prepare(final Entry entry) throws IOException {
+            if (entry.isDirectory()) {
+                return new CompletedFuture<Data>(new Data(new byte[0], 0));
+            }
+            if (entry.symlink) {
+                byte[] target = Files.readSymbolicLink(entry.path).toString().getBytes(UTF_8);
+                entry.size = target.length;
+                entry.compressedSize = target.length;
+                entry.crc = crc(target, target.length);
+                return new CompletedFuture<Data>(new Data(target, target.length));
+            }
+            if (Files.size(entry.path) > STREAMING_THRESHOLD) {
+                return new CompletedFuture<Data>(null);
+            }
+            return executor.submit(new Callable<Data>() {
+                @Override
+                public Data call() throws Exception {
+                    byte[] content = Files.readAllBytes(entry.path);
+                    entry.size = content.length;
+                    entry.crc = crc(content, content.length);
+                    if (isCompressed(entry) || content.length == 0) {
+                        entry.compressedSize = content.length;
+                        return new Data(content, content.length);
+                    }
+
+                    Deflater deflater = new Deflater(level, true);
+                    try {
+                        deflater.setInput(content);
+                        deflater.finish();
+                        byte[] output = new byte[Math.max(64, content.length + content.length / 1000 + 64)];
+                        int length = 0;
+                        while (!deflater.finished()) {
+                            if (length == output.length) {
+                                output = Arrays.copyOf(output, output.length * 2);
+                            }
+                            length += deflater.deflate(output, length, output.length - length);
+                        }
+                        if (length >= content.length) {
+                            // Incompressible data is stored
+                            entry.compressedSize = content.length;
+                            return new Data(content, content.length);
+                        }
+                        entry.method = DEFLATED;
+                        entry.compressedSize = length;
+                        return new Data(output, length);
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            });
+        }
+
+        private Data await(Future<Data> future) throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing ipa", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException(cause.getMessage(), cause);
+            }
+        }
+
+        /**
+         * Deflates a large file while writing it, sizes in the local header are patched afterwards.
+         */
+        private void writeStreamed(Entry entry) throws IOException {
+            entry.method = isCompressed(entry) ? STORED : DEFLATED;
+            writeLocalHeader(entry);
+            long dataStart = channel.position();
+
+            CRC32 crc = new CRC32();
+            Deflater deflater = entry.method == DEFLATED ? new Deflater(level, true) : null;
+            byte[] input = new byte[256 * 1024];
+            byte[] output = new byte[256 * 1024];
+            long size = 0;
+            FileChannel source = FileChannel.open(entry.path);
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(input);
+                int read;
+                while ((read = source.read(buffer)) != -1) {
+                    if (read == 0) {
+                        continue;
+                    }
+                    crc.update(input, 0, read);
+                    size += read;
+                    if (deflater == null) {
+                        writeFully(ByteBuffer.wrap(input, 0, read));
+                    } else {
+                        deflater.setInput(input, 0, read);
+                        while (!deflater.needsInput()) {
+                            int length = deflater.deflate(output);
+                            writeFully(ByteBuffer.wrap(output, 0, length));
+                        }
+                    }
+                    buffer.clear();
+                }
+                if (deflater != null) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        int length = deflater.deflate(output);
+                        writeFully(ByteBuffer.wrap(output, 0, length));
+                    }
+                }
+            } finally {
+                source.close();
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+
+            entry.crc = crc.getValue();
+            entry.size = size;
+            entry.compressedSize = channel.position() - dataStart;
+            checkSize(entry.size);
+            checkSize(entry.compressedSize);
+
+            ByteBuffer sizes = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            sizes.putInt((int) entry.crc).putInt((int) entry.compressedSize).putInt((int) entry.size);
+            sizes.flip();
+            long end = channel.position();
+            channel.position(entry.offset + 14);
+            writeFully(sizes);
+            channel.position(end);
+        }
+
+        private void writeLocalHeader(Entry entry) throws IOException {
+            entry.offset = channel.position();
+            checkSize(entry.offset);
+            byte[] name = entry.name.getBytes(UTF_8);
+            ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + name.length).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(LOCAL_HEADER_SIGNATURE);
+            header.putShort((short) VERSION_NEEDED);
+            header.putShort((short) FLAG_UTF_8);
+            header.putShort((short) entry.method);
+            header.putInt(dosTime(entry.time, timeZone));
+            header.putInt((int) entry.crc);
+            header.putInt((int) entry.compressedSize);
+            header.putInt((int) entry.size);
+            header.putShort((short) name.length);
+            header.putShort((short) 0);
+            header.put(name);
+            header.flip();
+            writeFully(header);
+        }
+
+        private void writeCentralHeader(Entry entry) throws IOException {
+            byte[] name = entry.name.getBytes(UTF_8);
+            ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + name.length).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(CENTRAL_HEADER_SIGNATURE);
+            header.putShort((short) VERSION_MADE_BY);
+            header.putShort((short) VERSION_NEEDED);
+            header.putShort((short) FLAG_UTF_8);
+            header.putShort((short) entry.method);
+            header.putInt(dosTime(entry.time, timeZone));
+            header.putInt((int) entry.crc);
+            header.putInt((int) entry.compressedSize);
+            header.putInt((int) entry.size);
+            header.putShort((short) name.length);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            // Internal attributes, external attributes: unix mode in the high word, MS-DOS directory flag
+            header.putShort((short) 0);
+            header.putInt((entry.mode << 16) | (entry.isDirectory() ? 0x10 : 0));
+            header.putInt((int) entry.offset);
+            header.put(name);
+            header.flip();
+            writeFully(header);
+        }
+
+        private void writeEnd(int count, long centralStart, long centralSize) throws IOException {
+            if (count > 0xFFFF) {
+                throw new IOException("Too many entries for an ipa without zip64: " + count);
+            }
+            checkSize(centralStart);
+            checkSize(centralSize);
+            ByteBuffer end = ByteBuffer.allocate(END_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            end.putInt(END_SIGNATURE);
+            end.putShort((short) 0);
+            end.putShort((short) 0);
+            end.putShort((short) count);
+            end.putShort((short) count);
+            end.putInt((int) centralSize);
+            end.putInt((int) centralStart);
+            end.putShort((short) 0);
+            end.flip();
+            writeFully(end);
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static void checkSize(long size) throws IOException {
+        if (size > MAX_SIZE) {
+            throw new IOException("Ipa larger than 4 GB is not supported");
+        }
+    }
+
+    private static long crc(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return crc.getValue();
+    }
+
+    /**
+     * Converts time to MS-DOS date and time in the given time zone, zip tools use the local one.
+     */
+    private static int dosTime(long time, TimeZone timeZone) {
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private static class CompletedFuture<V> implements Future<V> {
+
+        private final V value;
+
+        CompletedFuture(V value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public V get() {
+            return value;
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) {
+            return value;
+        }
+    }
+}
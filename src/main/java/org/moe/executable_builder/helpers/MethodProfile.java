@@ -0,0 +1,200 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.helpers;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Method profile recorded by the runtime profiler and read by dex2oat --profile-file.
+ * The first line holds "samples/null samples/boot samples", every following line
+ * "method/samples/code size". Profiles of several runs are merged by adding up samples.
+ */
+public class MethodProfile {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SEPARATOR = "/";
+
+    private long samples;
+    private long nullSamples;
+    private long bootSamples;
+
+    private final Map<String, Method> methods = new HashMap<String, Method>();
+
+    public static MethodProfile read(File file) throws IOException {
+        MethodProfile profile = new MethodProfile();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+        try {
+            String line = reader.readLine();
+            if (line == null) {
+                return profile;
+            }
+            long[] summary = parseNumbers(line.split(SEPARATOR), 0, 3, file);
+            profile.samples = summary[0];
+            profile.nullSamples = summary[1];
+            profile.bootSamples = summary[2];
+
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                // Method names may contain the separator, counters are always the last two fields
+                int sizeStart = line.lastIndexOf(SEPARATOR);
+                int countStart = sizeStart > 0 ? line.lastIndexOf(SEPARATOR, sizeStart - 1) : -1;
+                if (countStart <= 0) {
+                    throw new IOException("Malformed profile line in " + file + ": " + line);
+                }
+                long[] counters = parseNumbers(line.substring(countStart + 1).split(SEPARATOR), 0, 2, file);
+                profile.add(line.substring(0, countStart), counters[0], counters[1]);
+            }
+        } finally {
+            reader.close();
+        }
+        return profile;
+    }
+
+    private static long[] parseNumbers(String[] fields, int from, int count, File file) throws IOException {
+        if (fields.length < from + count) {
+            throw new IOException("Malformed profile " + file);
+        }
+        long[] numbers = new long[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                numbers[i] = Long.parseLong(fields[from + i].trim());
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed profile " + file + ": " + e.getMessage());
+        }
+        return numbers;
+    }
+
+    private void add(String name, long count, long size) {
+        Method method = methods.get(name);
+        if (method == null) {
+            methods.put(name, new Method(name, count, size));
+        } else {
+            method.count += count;
+            method.size = Math.max(method.size, size);
+        }
+    }
+
+    /**
+     * Adds samples of another profile to this one.
+     */
+    public void merge(MethodProfile other) {
+        samples += other.samples;
+        nullSamples += other.nullSamples;
+        bootSamples += other.bootSamples;
+        for (Method method : other.methods.values()) {
+            add(method.name, method.count, method.size);
+        }
+    }
+
+    public int getMethodCount() {
+        return methods.size();
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * Writes the profile with the hottest methods first, so the output doesn't depend on merge order.
+     */
+    public void write(File file) throws IOException {
+        List<Method> sorted = new ArrayList<Method>(methods.values());
+        Collections.sort(sorted, new Comparator<Method>() {
+            @Override
+            public int compare(Method a, Method b) {
+                if (a.count != b.count) {
+                    return a.count > b.count ? -1 : 1;
+                }
+                return a.name.compareTo(b.name);
+            }
+        });
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        File temp = new File(parent, file.getName() + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF_8));
+        try {
+            writer.write(samples + SEPARATOR + nullSamples + SEPARATOR + bootSamples + "\n");
+            for (Method method : sorted) {
+                writer.write(method.name + SEPARATOR + method.count + SEPARATOR + method.size + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete " + file.getAbsolutePath());
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to move " + temp.getAbsolutePath() + " to " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Merges all given profiles into one.
+     */
+    public static MethodProfile merge(List<File> files) throws IOException {
+        MethodProfile merged = new MethodProfile();
+        for (File file : files) {
+            merged.merge(read(file));
+        }
+        return merged;
+    }
+
+    /**
+     * Entry point of the "merge_profiles output input..." command.
+     */
+    public static int run(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage: java -jar moeExecutableBuilder.jar " + args[0] + " <output> <profile>...");
+            return 1;
+        }
+
+        List<File> inputs = new ArrayList<File>();
+        for (int i = 2; i < args.length; i++) {
+            inputs.add(new File(args[i]));
+        }
+        try {
+            MethodProfile merged = merge(inputs);
+            merged.write(new File(args[1]));
+            System.out.println("Merged " + inputs.size() + " profile(s), " + merged.getMethodCount() +
+                    " method(s), " + merged.getSamples() + " sample(s)");
+        } catch (IOException e) {
+            System.err.println("Failed to merge profiles: " + e.getMessage());
+            return 1;
+        }
+        return 0;
+    }
+
+    private static class Method {
+
+        final String name;
+        long count;
+        long size;
+
+        Method(String name, long count, long size) {
+            this.name = name;
+            this.count = count;
+            this.size = size;
+        }
+    }
+}
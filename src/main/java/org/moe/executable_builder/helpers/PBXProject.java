@@ -0,0 +1,192 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.helpers;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Parsed project.pbxproj. The model is immutable, edits are made with {@link PBXProjectEditor}
+ * which rewrites only the changed parts of the source text.
+ */
+public class PBXProject {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAX_CACHED_PROJECTS = 8;
+
+    private static final FileHasher hasher = new FileHasher();
+
+    /*
+    Parsed projects by content hash, variants of a build share the project so it's parsed once per run
+     */
+    private static final Map<String, PBXProject> cache = new LruCache();
+
+    private final String text;
+
+    private final PlistNode.Dictionary root;
+
+    private final PlistNode.Dictionary objects;
+
+    private PBXProject(String text, PlistNode.Dictionary root) throws IOException {
+        this.text = text;
+        this.root = root;
+        objects = root.getDictionary("objects");
+        if (objects == null) {
+            throw new IOException("Project has no objects");
+        }
+    }
+
+    /**
+     * Returns the parsed project, files with the same content are parsed only once.
+     */
+    public static PBXProject load(File file) throws IOException {
+        String hash = hasher.hash(file);
+        synchronized (cache) {
+            PBXProject project = cache.get(hash);
+            if (project != null) {
+                return project;
+            }
+        }
+
+        PBXProject project;
+        try {
+            project = parse(FileUtils.readFileToString(file, UTF_8));
+        } catch (IOException e) {
+            throw new IOException("Failed to parse " + file.getAbsolutePath() + ": " + e.getMessage(), e);
+        }
+        synchronized (cache) {
+            cache.put(hash, project);
+        }
+        return project;
+    }
+
+    public static PBXProject parse(String text) throws IOException {
+        PlistNode root = PlistParser.parse(text);
+        if (!(root instanceof PlistNode.Dictionary)) {
+            throw new IOException("Project root is not a dictionary");
+        }
+        return new PBXProject(text, (PlistNode.Dictionary)root);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public PlistNode.Dictionary getRoot() {
+        return root;
+    }
+
+    public PlistNode.Dictionary getObjects() {
+        return objects;
+    }
+
+    public PlistNode.Dictionary getObject(String id) {
+        return objects.getDictionary(id);
+    }
+
+    /**
+     * Returns ids of objects with the given isa, e.g. PBXShellScriptBuildPhase.
+     */
+    public List<String> findObjects(String isa) {
+        List<String> ids = new ArrayList<String>();
+        for (PlistNode.Entry entry : objects.getEntries()) {
+            PlistNode value = entry.getValue();
+            if (value instanceof PlistNode.Dictionary && isa.equals(((PlistNode.Dictionary)value).getString("isa"))) {
+                ids.add(entry.getKey());
+            }
+        }
+        return ids;
+    }
+
+    public PBXProjectEditor edit() {
+        return new PBXProjectEditor(this);
+    }
+
+    /**
+     * Returns places where any of the object ids is used as a value, both array elements and dictionary entries.
+     * The project is walked once whatever the number of ids.
+     */
+    List<Reference> findReferences(Set<String> ids) {
+        List<Reference> references = new ArrayList<Reference>();
+        findReferences(root, ids, references);
+        return references;
+    }
+
+    private static void findReferences(PlistNode node, Set<String> ids, List<Reference> references) {
+        if (node instanceof PlistNode.Dictionary) {
+            for (PlistNode.Entry entry : ((PlistNode.Dictionary)node).getEntries()) {
+                PlistNode value = entry.getValue();
+                if (value instanceof PlistNode.Text) {
+                    if (ids.contains(((PlistNode.Text)value).getValue())) {
+                        references.add(new Reference(entry.getStart(), entry.getEnd()));
+                    }
+                } else {
+                    findReferences(value, ids, references);
+                }
+            }
+        } else if (node instanceof PlistNode.Array) {
+            for (PlistNode.Element element : ((PlistNode.Array)node).getElements()) {
+                PlistNode value = element.getValue();
+                if (value instanceof PlistNode.Text) {
+                    if (ids.contains(((PlistNode.Text)value).getValue())) {
+                        references.add(new Reference(element.getStart(), element.getEnd()));
+                    }
+                } else {
+                    findReferences(value, ids, references);
+                }
+            }
+        }
+    }
+
+    static final class Reference {
+
+        final int start;
+
+        final int end;
+
+        Reference(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Parsed projects, the least recently used one is dropped when the cache is full.
+     */
+    private static final class LruCache extends LinkedHashMap<String, PBXProject> {
+
+        private static final long serialVersionUID = 1L;
+
+        LruCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PBXProject> eldest) {
+            return size() > MAX_CACHED_PROJECTS;
+        }
+    }
+}
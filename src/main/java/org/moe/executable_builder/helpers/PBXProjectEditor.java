@@ -0,0 +1,190 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.helpers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects removals from a parsed project and applies them to its source text. Everything outside of
+ * the removed ranges is kept as it was, so formatting and comments of the project don't change.
+ */
+public class PBXProjectEditor {
+
+    private final PBXProject project;
+
+    private final List<int[]> removals = new ArrayList<int[]>();
+
+    private final Set<String> removedObjects = new LinkedHashSet<String>();
+
+    PBXProjectEditor(PBXProject project) {
+        this.project = project;
+    }
+
+    /**
+     * Removes the object together with every reference to it, e.g. its entry in buildPhases of targets.
+     */
+    public void removeObject(String id) {
+        removeObjects(Collections.singletonList(id));
+    }
+
+    /**
+     * Removes the objects and their references, the project is searched for references once.
+     */
+    public void removeObjects(Collection<String> ids) {
+        Set<String> removed = new HashSet<String>();
+        for (String id : ids) {
+            PlistNode.Entry entry = project.getObjects().getEntry(id);
+            if (entry != null && removedObjects.add(id)) {
+                remove(entry.getStart(), entry.getEnd());
+                removed.add(id);
+            }
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+        for (PBXProject.Reference reference : project.findReferences(removed)) {
+            remove(reference.start, reference.end);
+        }
+    }
+
+    /**
+     * Removes all objects with the given isa, their references and the section comments around them.
+     */
+    public void removeSection(String isa) {
+        removeObjects(project.findObjects(isa));
+
+        String text = project.getText();
+        PlistNode.Dictionary objects = project.getObjects();
+        for (String marker : new String[] {"/* Begin " + isa + " section */", "/* End " + isa + " section */"}) {
+            int index = objects.getStart();
+            while ((index = text.indexOf(marker, index)) >= 0 && index < objects.getEnd()) {
+                remove(index, index + marker.length());
+                index += marker.length();
+            }
+        }
+    }
+
+    public Set<String> getRemovedObjects() {
+        return Collections.unmodifiableSet(removedObjects);
+    }
+
+    public boolean isChanged() {
+        return !removals.isEmpty();
+    }
+
+    /**
+     * Returns the edited text of the project.
+     */
+    public String apply() {
+        String text = project.getText();
+        if (removals.isEmpty()) {
+            return text;
+        }
+
+        List<int[]> sorted = new ArrayList<int[]>(removals);
+        Collections.sort(sorted, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return a[0] != b[0] ? (a[0] < b[0] ? -1 : 1) : (a[1] > b[1] ? -1 : a[1] < b[1] ? 1 : 0);
+            }
+        });
+
+        // References inside removed objects overlap the object range, they are skipped
+        StringBuilder builder = new StringBuilder(text.length());
+        int copied = 0;
+        for (int[] range : sorted) {
+            if (range[1] <= copied) {
+                continue;
+            }
+            builder.append(text, copied, Math.max(copied, range[0]));
+            copied = range[1];
+        }
+        builder.append(text, copied, text.length());
+        return builder.toString();
+    }
+
+    /**
+     * Writes the edited project to a temporary file next to the target which then replaces it.
+     *
+     * @return the written text
+     */
+    public String write(File file) throws IOException {
+        String text = apply();
+        byte[] bytes = text.getBytes(PBXProject.UTF_8);
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            OutputStream output = new FileOutputStream(tempFile);
+            try {
+                output.write(bytes);
+            } finally {
+                output.close();
+            }
+            ArtifactPromoter.replace(tempFile, file);
+            tempFile = null;
+            return text;
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Widens the range to whole lines when nothing else is on them, otherwise takes trailing blanks only.
+     */
+    private void remove(int start, int end) {
+        String text = project.getText();
+        int lineStart = start;
+        while (lineStart > 0 && isBlank(text.charAt(lineStart - 1))) {
+            lineStart--;
+        }
+        int lineEnd = end;
+        while (lineEnd < text.length() && isBlank(text.charAt(lineEnd))) {
+            lineEnd++;
+        }
+
+        boolean startsLine = lineStart == 0 || text.charAt(lineStart - 1) == '\n';
+        boolean endsLine = lineEnd == text.length() || text.charAt(lineEnd) == '\n' || text.charAt(lineEnd) == '\r';
+        if (startsLine && endsLine) {
+            if (lineEnd < text.length() && text.charAt(lineEnd) == '\r') {
+                lineEnd++;
+            }
+            if (lineEnd < text.length() && text.charAt(lineEnd) == '\n') {
+                lineEnd++;
+            }
+            removals.add(new int[] {lineStart, lineEnd});
+        } else {
+            removals.add(new int[] {start, lineEnd});
+        }
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t';
+    }
+}
@@ -0,0 +1,97 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock of a path, held against other threads of this process and against other processes.
+ * File locks are held by the whole JVM, so threads are serialized by an in-process lock first.
+ */
+public class PathLock {
+
+    private static final ConcurrentHashMap<String, ReentrantLock> LOCAL_LOCKS = new ConcurrentHashMap<String, ReentrantLock>();
+
+    private final ReentrantLock localLock;
+
+    private final RandomAccessFile file;
+
+    private final FileLock fileLock;
+
+    private PathLock(ReentrantLock localLock, RandomAccessFile file, FileLock fileLock) {
+        this.localLock = localLock;
+        this.file = file;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Blocks until the lock file is locked, the file is created if needed and never deleted.
+     */
+    public static PathLock acquire(File lockFile) throws IOException {
+        String key = lockFile.getCanonicalPath();
+        ReentrantLock localLock = LOCAL_LOCKS.get(key);
+        if (localLock == null) {
+            ReentrantLock newLock = new ReentrantLock();
+            localLock = LOCAL_LOCKS.putIfAbsent(key, newLock);
+            if (localLock == null) {
+                localLock = newLock;
+            }
+        }
+
+        localLock.lock();
+        RandomAccessFile file = null;
+        try {
+            lockFile.getAbsoluteFile().getParentFile().mkdirs();
+            file = new RandomAccessFile(lockFile, "rw");
+            FileChannel channel = file.getChannel();
+            // Nested acquisition by the same thread keeps using the file lock it already holds
+            FileLock fileLock = localLock.getHoldCount() > 1 ? null : channel.lock();
+            return new PathLock(localLock, file, fileLock);
+        } catch (IOException e) {
+            if (file != null) {
+                file.close();
+            }
+            localLock.unlock();
+            throw e;
+        } catch (RuntimeException e) {
+            if (file != null) {
+                file.close();
+            }
+            localLock.unlock();
+            throw e;
+        }
+    }
+
+    public void release() {
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+            file.close();
+        } catch (IOException e) {
+            System.err.println("Failed to release lock: " + e.getMessage());
+        } finally {
+            localLock.unlock();
+        }
+    }
+}
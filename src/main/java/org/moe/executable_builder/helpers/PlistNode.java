@@ -0,0 +1,238 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.helpers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Value of an OpenStep property list. Every node remembers where it was found in the source text,
+ * so the text can be edited in place without reformatting the rest of the file.
+ */
+public abstract class PlistNode {
+
+    private final int start;
+
+    private final int end;
+
+    PlistNode(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Returns offset of the first character of the value in the source text.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Returns offset after the last character of the value in the source text.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * String value, either quoted or not.
+     */
+    public static final class Text extends PlistNode {
+
+        private final String value;
+
+        Text(int start, int end, String value) {
+            super(start, end);
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    /**
+     * Array value, "( a, b, )".
+     */
+    public static final class Array extends PlistNode {
+
+        private final List<Element> elements;
+
+        Array(int start, int end, List<Element> elements) {
+            super(start, end);
+            this.elements = Collections.unmodifiableList(elements);
+        }
+
+        public List<Element> getElements() {
+            return elements;
+        }
+    }
+
+    /**
+     * Dictionary value, "{ key = value; }". Entries keep their order in the file.
+     */
+    public static final class Dictionary extends PlistNode {
+
+        /*
+        Objects have a few entries each and are searched linearly, larger dictionaries get a hash index
+         */
+        private static final int INDEX_THRESHOLD = 8;
+
+        private final List<Entry> entries;
+
+        private volatile Map<String, Entry> index;
+
+        Dictionary(int start, int end, List<Entry> entries) {
+            super(start, end);
+            this.entries = Collections.unmodifiableList(entries);
+        }
+
+        public List<Entry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Returns entry of the key, the last one if the key is repeated.
+         */
+        public Entry getEntry(String key) {
+            if (entries.size() <= INDEX_THRESHOLD) {
+                for (int i = entries.size() - 1; i >= 0; i--) {
+                    Entry entry = entries.get(i);
+                    if (entry.getKey().equals(key)) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+
+            Map<String, Entry> map = index;
+            if (map == null) {
+                map = new HashMap<String, Entry>(entries.size() * 2);
+                for (Entry entry : entries) {
+                    map.put(entry.getKey(), entry);
+                }
+                index = map;
+            }
+            return map.get(key);
+        }
+
+        public PlistNode get(String key) {
+            Entry entry = getEntry(key);
+            return entry != null ? entry.getValue() : null;
+        }
+
+        /**
+         * Returns string value of the key, null if there is no such key or the value is not a string.
+         */
+        public String getString(String key) {
+            PlistNode value = get(key);
+            return value instanceof Text ? ((Text)value).getValue() : null;
+        }
+
+        public Dictionary getDictionary(String key) {
+            PlistNode value = get(key);
+            return value instanceof Dictionary ? (Dictionary)value : null;
+        }
+
+        public List<PlistNode> getArray(String key) {
+            PlistNode value = get(key);
+            if (!(value instanceof Array)) {
+                return Collections.emptyList();
+            }
+            List<PlistNode> values = new ArrayList<PlistNode>();
+            for (Element element : ((Array)value).getElements()) {
+                values.add(element.getValue());
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Element of an array. Its extent covers the value, comments following it and the separating comma.
+     */
+    public static final class Element {
+
+        private final PlistNode value;
+
+        private final int start;
+
+        private final int end;
+
+        Element(PlistNode value, int start, int end) {
+            this.value = value;
+            this.start = start;
+            this.end = end;
+        }
+
+        public PlistNode getValue() {
+            return value;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+    }
+
+    /**
+     * Entry of a dictionary. Its extent covers the key, comments, the value and the terminating semicolon.
+     */
+    public static final class Entry {
+
+        private final String key;
+
+        private final PlistNode value;
+
+        private final int start;
+
+        private final int end;
+
+        Entry(String key, PlistNode value, int start, int end) {
+            this.key = key;
+            this.value = value;
+            this.start = start;
+            this.end = end;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public PlistNode getValue() {
+            return value;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+    }
+}
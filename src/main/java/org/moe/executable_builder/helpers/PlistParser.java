@@ -0,0 +1,249 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.helpers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single pass parser of OpenStep (ASCII) property lists as written by Xcode.
+ */
+final class PlistParser {
+
+    private final String text;
+
+    private int pos;
+
+    /*
+    End of the last comment skipped, lets trailing "/* name *\/" comments belong to the preceding value
+     */
+    private int lastCommentEnd;
+
+    private PlistParser(String text) {
+        this.text = text;
+    }
+
+    static PlistNode parse(String text) throws IOException {
+        PlistParser parser = new PlistParser(text);
+        parser.skipWhitespace();
+        PlistNode root = parser.parseValue();
+        parser.skipWhitespace();
+        if (parser.pos != text.length()) {
+            throw parser.error("Unexpected content after the root value");
+        }
+        return root;
+    }
+
+    private PlistNode parseValue() throws IOException {
+        if (pos >= text.length()) {
+            throw error("Unexpected end of file");
+        }
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{':
+                return parseDictionary();
+            case '(':
+                return parseArray();
+            case '"':
+            case '\'':
+                return parseQuoted(c);
+            case '<':
+                return parseData();
+            default:
+                return parseUnquoted();
+        }
+    }
+
+    private PlistNode.Dictionary parseDictionary() throws IOException {
+        int start = pos++;
+        List<PlistNode.Entry> entries = new ArrayList<PlistNode.Entry>();
+        while (true) {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw error("Unterminated dictionary");
+            }
+            if (text.charAt(pos) == '}') {
+                pos++;
+                return new PlistNode.Dictionary(start, pos, entries);
+            }
+
+            int entryStart = pos;
+            PlistNode key = parseValue();
+            if (!(key instanceof PlistNode.Text)) {
+                throw error("Dictionary key must be a string");
+            }
+            skipWhitespace();
+            expect('=');
+            skipWhitespace();
+            PlistNode value = parseValue();
+            skipWhitespace();
+            expect(';');
+
+            String name = ((PlistNode.Text)key).getValue();
+            entries.add(new PlistNode.Entry(name, value, entryStart, pos));
+        }
+    }
+
+    private PlistNode.Array parseArray() throws IOException {
+        int start = pos++;
+        List<PlistNode.Element> elements = new ArrayList<PlistNode.Element>();
+        while (true) {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw error("Unterminated array");
+            }
+            if (text.charAt(pos) == ')') {
+                pos++;
+                return new PlistNode.Array(start, pos, elements);
+            }
+
+            PlistNode value = parseValue();
+            lastCommentEnd = value.getEnd();
+            skipWhitespace();
+            int end = lastCommentEnd;
+            if (pos < text.length() && text.charAt(pos) == ',') {
+                end = ++pos;
+            } else if (pos >= text.length() || text.charAt(pos) != ')') {
+                throw error("Expected ',' or ')'");
+            }
+            elements.add(new PlistNode.Element(value, value.getStart(), end));
+        }
+    }
+
+    private PlistNode.Text parseQuoted(char quote) throws IOException {
+        int start = pos++;
+        StringBuilder value = null;
+        int chunk = pos;
+        while (true) {
+            if (pos >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char c = text.charAt(pos);
+            if (c == quote) {
+                String result = value == null ? text.substring(chunk, pos) :
+                        value.append(text, chunk, pos).toString();
+                pos++;
+                return new PlistNode.Text(start, pos, result);
+            }
+            if (c != '\\') {
+                pos++;
+                continue;
+            }
+
+            // Escapes are rare, plain strings are returned as substrings
+            if (value == null) {
+                value = new StringBuilder();
+            }
+            value.append(text, chunk, pos);
+            if (++pos >= text.length()) {
+                throw error("Unterminated string");
+            }
+            c = text.charAt(pos++);
+            switch (c) {
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 'U':
+                    if (pos + 4 > text.length()) {
+                        throw error("Invalid unicode escape");
+                    }
+                    try {
+                        value.append((char)Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    value.append(c);
+                    break;
+            }
+            chunk = pos;
+        }
+    }
+
+    private PlistNode.Text parseData() throws IOException {
+        int start = pos;
+        int end = text.indexOf('>', pos);
+        if (end < 0) {
+            throw error("Unterminated data");
+        }
+        pos = end + 1;
+        return new PlistNode.Text(start, pos, text.substring(start, pos));
+    }
+
+    private PlistNode.Text parseUnquoted() throws IOException {
+        int start = pos;
+        while (pos < text.length() && isUnquotedChar(text.charAt(pos))) {
+            pos++;
+        }
+        if (pos == start) {
+            throw error("Unexpected character '" + text.charAt(pos) + "'");
+        }
+        return new PlistNode.Text(start, pos, text.substring(start, pos));
+    }
+
+    private static boolean isUnquotedChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                c == '_' || c == '$' || c == '/' || c == ':' || c == '.' || c == '-' || c == '+';
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                pos++;
+            } else if (c == '/' && pos + 1 < text.length() && text.charAt(pos + 1) == '*') {
+                int end = text.indexOf("*/", pos + 2);
+                if (end < 0) {
+                    throw error("Unterminated comment");
+                }
+                pos = end + 2;
+                lastCommentEnd = pos;
+            } else if (c == '/' && pos + 1 < text.length() && text.charAt(pos + 1) == '/') {
+                int end = text.indexOf('\n', pos + 2);
+                pos = end < 0 ? text.length() : end;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void expect(char c) throws IOException {
+        if (pos >= text.length() || text.charAt(pos) != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private IOException error(String message) {
+        int line = 1;
+        for (int i = 0; i < pos && i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                line++;
+            }
+        }
+        return new IOException(message + " at line " + line);
+    }
+}
@@ -0,0 +1,237 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.helpers;
+
+import org.moe.common.developer.ProvisioningProfile;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Installs provisioning profiles where Xcode looks for them, as &lt;UUID&gt;.mobileprovision.
+ * <p>
+ * Profiles are identified by the hash of their content. UUID, team and expiration date of every
+ * profile seen so far are kept in an index, so a profile is parsed and copied only when its
+ * content changes. Installed profiles are never deleted: concurrent builds using the same profile
+ * share one file, and a new version replaces the old one atomically.
+ */
+public class ProvisioningProfileStore {
+
+    public static final String EXTENSION = ".mobileprovision";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final String SEPARATOR = "|";
+
+    private static final Pattern UUID_PATTERN = Pattern.compile("<key>UUID</key>\\s*<string>([^<]+)</string>");
+    private static final Pattern TEAM_PATTERN = Pattern.compile("<key>TeamIdentifier</key>\\s*<array>\\s*<string>([^<]+)</string>");
+    private static final Pattern EXPIRATION_PATTERN = Pattern.compile("<key>ExpirationDate</key>\\s*<date>([^<]+)</date>");
+
+    private final File installDir;
+
+    private final File indexFile;
+
+    private final FileHasher hasher = new FileHasher();
+
+    private final Properties index = new Properties();
+
+    public ProvisioningProfileStore(File installDir, File indexFile) {
+        this.installDir = installDir;
+        this.indexFile = indexFile;
+        loadIndex(index);
+    }
+
+    public static File getDefaultInstallDirectory() {
+        return new File(System.getProperty("user.home"), "Library" + File.separator + "MobileDevice" + File.separator + "Provisioning Profiles");
+    }
+
+    public static File getDefaultIndexFile() {
+        return new File(System.getProperty("user.home"), ".moe" + File.separator + "provisioning-profiles.properties");
+    }
+
+    /**
+     * Installs the profile unless an identical one is installed already.
+     */
+    public synchronized Entry install(File profile) throws IOException {
+        String hash = hasher.hash(profile);
+
+        Entry entry = Entry.parse(index.getProperty(hash));
+        if (entry == null) {
+            entry = parse(profile);
+            index.setProperty(hash, entry.format());
+            saveIndex();
+        }
+
+        File installed = new File(installDir, entry.uuid + EXTENSION);
+        if (!installed.isFile() || !hash.equals(hasher.hash(installed))) {
+            installDir.mkdirs();
+            File temp = File.createTempFile(entry.uuid, ".tmp", installDir);
+            try {
+                Files.copy(profile.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp.toPath(), installed.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                temp.delete();
+            }
+        }
+        return entry;
+    }
+
+    private static Entry parse(File profile) throws IOException {
+        // Profile is a signed CMS message, the plist inside is stored as plain text
+        String content = new String(Files.readAllBytes(profile.toPath()), ISO_8859_1);
+
+        String uuid = find(UUID_PATTERN, content);
+        if (uuid == null) {
+            try {
+                uuid = ProvisioningProfile.getUUIDFromProfile(profile);
+            } catch (Exception e) {
+                throw new IOException("Failed to read UUID of " + profile.getAbsolutePath() + ": " + e.getMessage(), e);
+            }
+        }
+        if (uuid == null || uuid.isEmpty()) {
+            throw new IOException("No UUID in " + profile.getAbsolutePath());
+        }
+
+        String team = find(TEAM_PATTERN, content);
+        long expiration = 0;
+        String date = find(EXPIRATION_PATTERN, content);
+        if (date != null) {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            try {
+                expiration = format.parse(date).getTime();
+            } catch (ParseException e) {
+                System.err.println("Invalid expiration date in " + profile.getAbsolutePath() + ": " + date);
+            }
+        }
+        return new Entry(uuid.trim(), team != null ? team.trim() : "", expiration);
+    }
+
+    private static String find(Pattern pattern, String content) {
+        Matcher matcher = pattern.matcher(content);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private void loadIndex(Properties properties) {
+        if (!indexFile.isFile()) {
+            return;
+        }
+        try {
+            Reader reader = new InputStreamReader(new FileInputStream(indexFile), UTF_8);
+            try {
+                properties.load(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read provisioning profile index: " + e.getMessage());
+        }
+    }
+
+    private void saveIndex() {
+        // Entries written by other processes in the meantime are kept
+        Properties merged = new Properties();
+        loadIndex(merged);
+        merged.putAll(index);
+        index.putAll(merged);
+
+        try {
+            indexFile.getParentFile().mkdirs();
+            File temp = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getParentFile());
+            try {
+                Writer writer = new OutputStreamWriter(new FileOutputStream(temp), UTF_8);
+                try {
+                    merged.store(writer, null);
+                } finally {
+                    writer.close();
+                }
+                Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write provisioning profile index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Data of an installed profile.
+     */
+    public static class Entry {
+
+        private final String uuid;
+        private final String team;
+        private final long expiration;
+
+        Entry(String uuid, String team, long expiration) {
+            this.uuid = uuid;
+            this.team = team;
+            this.expiration = expiration;
+        }
+
+        static Entry parse(String value) {
+            if (value == null) {
+                return null;
+            }
+            String[] fields = value.split("\\" + SEPARATOR, -1);
+            if (fields.length != 3) {
+                return null;
+            }
+            try {
+                return new Entry(fields[0], fields[1], Long.parseLong(fields[2]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        String format() {
+            return uuid + SEPARATOR + team + SEPARATOR + expiration;
+        }
+
+        public String getUuid() {
+            return uuid;
+        }
+
+        /**
+         * Returns team identifier, empty if the profile doesn't name one.
+         */
+        public String getTeam() {
+            return team;
+        }
+
+        /**
+         * Returns expiration date, null if unknown.
+         */
+        public Date getExpirationDate() {
+            return expiration > 0 ? new Date(expiration) : null;
+        }
+
+        public boolean isExpired() {
+            return expiration > 0 && expiration < System.currentTimeMillis();
+        }
+    }
+}
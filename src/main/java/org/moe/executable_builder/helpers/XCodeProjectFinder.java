@@ -0,0 +1,223 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Searches a module for an Xcode project file (project.pbxproj).
+ * <p>
+ * Well-known project locations are checked first. The rest of the module is searched up to
+ * a maximum depth, skipping directories known to be large and never to contain the project:
+ * build outputs, caches and VCS metadata. Unreadable directories are skipped as well.
+ * Found projects are cached by module path and modification time of the module directory. Misses
+ * aren't cached: a project generated later, e.g. in build/xcode, doesn't change the module directory.
+ */
+public class XCodeProjectFinder {
+
+    public static final int DEFAULT_MAX_DEPTH = 8;
+
+    static final Set<String> PRUNED_DIRECTORIES = new HashSet<String>(Arrays.asList(
+            "build", ".gradle", "DerivedData", "node_modules", "Pods", ".git", ".svn", ".hg", ".idea", "xcuserdata"));
+
+    private static final String[] KNOWN_LOCATIONS = new String[]{"xcode", "build" + File.separator + "xcode"};
+
+    private static final String PROJECT_FILE_SUFFIX = XCodeProjectFormatter.XCODE_PROJECT_EXTENSION;
+
+    private static final ConcurrentHashMap<String, CachedResult> CACHE = new ConcurrentHashMap<String, CachedResult>();
+
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+
+    private boolean parallel;
+
+    private boolean useCache = true;
+
+    public XCodeProjectFinder setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * Enables searching of subdirectories in parallel on a fork-join pool.
+     */
+    public XCodeProjectFinder setParallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
+    public XCodeProjectFinder setUseCache(boolean useCache) {
+        this.useCache = useCache;
+        return this;
+    }
+
+    /**
+     * @return project file or null if module doesn't contain one
+     */
+    public File find(File moduleDir) throws IOException {
+        Path root = moduleDir.toPath().toAbsolutePath().normalize();
+        String key = root.toString();
+        long lastModified = moduleDir.lastModified();
+
+        if (useCache) {
+            CachedResult cached = CACHE.get(key);
+            if (cached != null && cached.lastModified == lastModified && cached.project.isFile()) {
+                return cached.project;
+            }
+        }
+
+        File project = null;
+        for (String location : KNOWN_LOCATIONS) {
+            Path dir = root.resolve(location);
+            if (Files.isDirectory(dir)) {
+                project = walk(dir, 2);
+                if (project != null) {
+                    break;
+                }
+            }
+        }
+        if (project == null) {
+            project = parallel ? walkParallel(root) : walk(root, maxDepth);
+        }
+
+        if (useCache && project != null) {
+            CACHE.put(key, new CachedResult(lastModified, project));
+        }
+        return project;
+    }
+
+    private static File walk(Path root, int maxDepth) throws IOException {
+        final AtomicReference<File> found = new AtomicReference<File>();
+        final Path start = root;
+        Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(start) && isPruned(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && isProjectFile(file)) {
+                    found.set(file.toFile());
+                    return FileVisitResult.TERMINATE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                // Unreadable entries are not an error, the project is just not there
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return found.get();
+    }
+
+    private File walkParallel(Path root) {
+        AtomicReference<File> found = new AtomicReference<File>();
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new DirectorySearch(root, 0, maxDepth, found));
+        } finally {
+            pool.shutdown();
+        }
+        return found.get();
+    }
+
+    private static boolean isPruned(Path dir) {
+        Path name = dir.getFileName();
+        return name != null && PRUNED_DIRECTORIES.contains(name.toString());
+    }
+
+    private static boolean isProjectFile(Path file) {
+        Path name = file.getFileName();
+        return name != null && name.toString().endsWith(PROJECT_FILE_SUFFIX);
+    }
+
+    private static class DirectorySearch extends RecursiveTask<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+
+        private final int depth;
+
+        private final int maxDepth;
+
+        private final AtomicReference<File> found;
+
+        DirectorySearch(Path dir, int depth, int maxDepth, AtomicReference<File> found) {
+            this.dir = dir;
+            this.depth = depth;
+            this.maxDepth = maxDepth;
+            this.found = found;
+        }
+
+        @Override
+        protected Void compute() {
+            List<DirectorySearch> subtasks = new ArrayList<DirectorySearch>();
+            try {
+                DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+                try {
+                    for (Path entry : stream) {
+                        if (found.get() != null) {
+                            return null;
+                        }
+                        BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (attrs.isDirectory()) {
+                            if (depth + 1 < maxDepth && !isPruned(entry)) {
+                                subtasks.add(new DirectorySearch(entry, depth + 1, maxDepth, found));
+                            }
+                        } else if (attrs.isRegularFile() && isProjectFile(entry)) {
+                            found.compareAndSet(null, entry.toFile());
+                            return null;
+                        }
+                    }
+                } finally {
+                    stream.close();
+                }
+            } catch (IOException ignored) {
+                // Unreadable directory
+                return null;
+            }
+            invokeAll(subtasks);
+            return null;
+        }
+    }
+
+    private static class CachedResult {
+
+        final long lastModified;
+
+        final File project;
+
+        CachedResult(long lastModified, File project) {
+            this.lastModified = lastModified;
+            this.project = project;
+        }
+    }
+}
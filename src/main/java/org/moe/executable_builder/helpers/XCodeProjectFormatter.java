@@ -19,115 +19,95 @@ package org.moe.executable_builder.helpers;
 
 import java.io.*;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 public class XCodeProjectFormatter {
 
     final static String XCODE_PROJECT_EXTENSION = ".pbxproj";
 
+    final static String SHELL_SCRIPT_BUILD_PHASE = "PBXShellScriptBuildPhase";
+
+    private XCodeProjectFinder projectFinder = new XCodeProjectFinder();
+
     public XCodeProjectFormatter() {
 
     }
 
+    /**
+     * Sets finder used when the project is not at its default location.
+     */
+    public void setProjectFinder(XCodeProjectFinder projectFinder) {
+        this.projectFinder = projectFinder;
+    }
+
     public boolean removeShellScripts(final String xcodeProjectDirPath, final String projectName, final String projectDirPath) {
         String xCodeProjectDefaultPath = xcodeProjectDirPath + "/" + projectName + ".xcodeproj" + "/" + "project" + XCODE_PROJECT_EXTENSION;
         System.out.println("removeShellScripts: " + xCodeProjectDefaultPath);
         File xCodeProject = new File(xCodeProjectDefaultPath);
 
-        if (xCodeProject.isFile() && xCodeProject.exists()) {
-            cutStringWithInLines("Begin PBXShellScriptBuildPhase section", "End PBXShellScriptBuildPhase section", xCodeProject);
-        } else {
+        if (!xCodeProject.isFile()) {
             xCodeProject = findXCodeProject(projectDirPath);
-            if (xCodeProject != null)
-                cutStringWithInLines("Begin PBXShellScriptBuildPhase section", "End PBXShellScriptBuildPhase section", xCodeProject);
-            else throw new RuntimeException("Couldn't find xCode project");
+            if (xCodeProject == null) {
+                throw new RuntimeException("Couldn't find xCode project");
+            }
         }
-        return findShellScript("ShellScript", xCodeProject);
+        return removeShellScriptPhases(xCodeProject);
     }
 
-    private File findXCodeProject(String projectDirPath) {
-        File projectDirectory = new File(projectDirPath);
-        if (projectDirectory.exists() && projectDirectory.isDirectory()) {
-
-            LinkedList<File> queue = new LinkedList<File>();
-            queue.push(projectDirectory);
+    /**
+     * Removes shell script build phases together with their references in buildPhases of targets.
+     * The project is rewritten only if it has such phases.
+     *
+     * @return true if a removed phase is still referenced after the edit
+     */
+    public boolean removeShellScriptPhases(File xCodeProject) {
+        try {
+            PBXProject project = PBXProject.load(xCodeProject);
+            PBXProjectEditor editor = project.edit();
+            editor.removeSection(SHELL_SCRIPT_BUILD_PHASE);
+            if (!editor.isChanged()) {
+                return false;
+            }
 
-            while (!queue.isEmpty()) {
-                File currentDirectory = queue.pop();
-                File[] filesList = currentDirectory.listFiles();
+            String edited = editor.write(xCodeProject);
 
-                for (File file : filesList) {
-                    if (file.isDirectory()) {
-                        queue.push(file);
-                    } else {
-                        if (file.getName().endsWith(XCODE_PROJECT_EXTENSION)) return file;
-                    }
+            // Ids are unique 24 digit strings, any occurrence left is a reference the parser didn't see
+            for (String id : editor.getRemovedObjects()) {
+                if (edited.contains(id)) {
+                    return true;
                 }
             }
-
-        } else {
-            throw new RuntimeException("XCode project directory is invalid (not exist), couldn't find xCode project");
+            return false;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to remove shell scripts from " + xCodeProject.getAbsolutePath() + ": " +
+                    e.getMessage(), e);
         }
-
-        return null;
     }
 
-    private void cutLinesWithStrings(String[] prohibitedStringsArray, File sourceFile) {
-        List<String> lines = new ArrayList<String>();
-        String line;
+    File findXCodeProject(String projectDirPath) {
+        File projectDirectory = new File(projectDirPath);
+        if (!projectDirectory.isDirectory()) {
+            throw new RuntimeException("XCode project directory is invalid (not exist), couldn't find xCode project");
+        }
 
         try {
-            FileReader fileReader = new FileReader(sourceFile);
-            BufferedReader bufferedReader = new BufferedReader(fileReader);
-
-            while ((line = bufferedReader.readLine()) != null) {
-                if (isStringContainsAtLeastOneString(line, prohibitedStringsArray))
-                    continue;
-                lines.add(line);
-            }
-            fileReader.close();
-            bufferedReader.close();
-
-            FileWriter fileWriter = new FileWriter(sourceFile);
-            BufferedWriter out = new BufferedWriter(fileWriter);
-            for (String s : lines) {
-                out.write(s);
-                out.newLine();
-            }
-            out.flush();
-            out.close();
-
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            throw new RuntimeException(ex);
-        } finally {
-
+            return projectFinder.find(projectDirectory);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to search for xCode project in " + projectDirPath, e);
         }
     }
 
-    public void cutStringWithInLines(String startLine, String endLine, File sourceFile) {
+    private void cutLinesWithStrings(String[] prohibitedStringsArray, File sourceFile) {
         List<String> lines = new ArrayList<String>();
         String line;
 
-        boolean shellScriptBlock = false;
-
         try {
             FileReader fileReader = new FileReader(sourceFile);
             BufferedReader bufferedReader = new BufferedReader(fileReader);
 
             while ((line = bufferedReader.readLine()) != null) {
-                if (isStringContainsAtLeastOneString(line, new String[]{startLine})) {
-                    shellScriptBlock = true;
-                    continue;
-                } else if (isStringContainsAtLeastOneString(line, new String[]{endLine})) {
-                    shellScriptBlock = false;
-                    continue;
-                } else if (shellScriptBlock) {
+                if (isStringContainsAtLeastOneString(line, prohibitedStringsArray))
                     continue;
-                }
-
-
                 lines.add(line);
             }
             fileReader.close();
@@ -150,31 +130,6 @@ public class XCodeProjectFormatter {
         }
     }
 
-    public boolean findShellScript(String lineToFind, File sourceFile) {
-        String line;
-
-        boolean shellScriptBlock = false;
-
-        try {
-            FileReader fileReader = new FileReader(sourceFile);
-            BufferedReader bufferedReader = new BufferedReader(fileReader);
-
-            while ((line = bufferedReader.readLine()) != null) {
-                if (isStringContainsAtLeastOneString(line, new String[]{lineToFind})) {
-                    shellScriptBlock = true;
-                    break;
-                }
-            }
-            fileReader.close();
-            bufferedReader.close();
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            throw new RuntimeException(ex);
-        } finally {
-        }
-        return shellScriptBlock;
-    }
-
     private boolean isStringContainsAtLeastOneString(String source, String[] stringsToFind) {
 
         for (String str : stringsToFind) {
@@ -16,19 +16,25 @@ limitations under the License.
 
 package org.moe.executable_builder.task;
 
-import org.moe.common.developer.ProvisioningProfile;
-import org.moe.common.exec.ExecRunner;
-import org.moe.common.exec.ExecRunnerBase;
-import org.moe.common.exec.SimpleExec;
 import org.moe.common.utils.FileUtil;
 import org.moe.common.variant.ModeVariant;
 import org.moe.common.variant.TargetVariant;
+import org.moe.executable_builder.exec.Command;
+import org.moe.executable_builder.helpers.ArtifactPromoter;
+import org.moe.executable_builder.helpers.AsyncLogSink;
+import org.moe.executable_builder.helpers.FileHasher;
+import org.moe.executable_builder.helpers.PathLock;
+import org.moe.executable_builder.helpers.ProvisioningProfileStore;
 import org.moe.executable_builder.helpers.XCodeProjectFormatter;
+import org.moe.executable_builder.task.cache.ArtifactCache;
 
 import java.io.*;
-import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -54,7 +60,11 @@ public class AppBuild extends BaseTask {
 
     private List<String> additionalParameters = new ArrayList<String>();
 
-    private File provisioningProfile;
+    private File provisioningProfileSource;
+
+    private ProvisioningProfileStore provisioningProfileStore;
+
+    private ArtifactCache cache;
 
     private String signingIdentity;
 
@@ -70,8 +80,14 @@ public class AppBuild extends BaseTask {
 
     private File sharedPrecompsDir;
 
+    private File workDir;
+
+    private File publishedSymRoot;
+
     private File log;
 
+    private boolean compressLogs;
+
     public AppBuild(String modulePath, ModeVariant modeVariant, TargetVariant targetVariant, String signingIdentity, String provisioningProfilePath) throws IOException {
 
         this.modulePath = modulePath;
@@ -101,49 +117,10 @@ public class AppBuild extends BaseTask {
         configuration = modeVariant.getName();
         sdk = targetVariant.getPlatformName();
 
-        final String outPath = buildPath + File.separator + MOE + File.separator + "xcodebuild";
-        new File(outPath).mkdirs();
-
-        dstRoot = new File(outPath, "dst");
-        dstRoot.mkdirs();
-
-        objRoot = new File(outPath, "obj");
-        objRoot.mkdirs();
-
-        symRoot = new File(outPath, "sym");
-        symRoot.mkdirs();
-
-        sharedPrecompsDir = new File(outPath, "sym");
-        sharedPrecompsDir.mkdirs();
-
-        this.provisioningProfile = null;
         if ((provisioningProfilePath != null) && !provisioningProfilePath.isEmpty()) {
-            this.provisioningProfile = new File(provisioningProfilePath);
-            if (!this.provisioningProfile.exists()) {
-                this.provisioningProfile = null;
-            } else {
-                File dst = new File(System.getProperty("user.home") + "/Library/MobileDevice/Provisioning Profiles/" + this.provisioningProfile.getName());
-                System.out.println(dst.getAbsolutePath());
-
-                if (!dst.getParentFile().exists()) {
-                    dst.getParentFile().mkdirs();
-                }
-                System.out.println("After create.");
-                FileChannel inputChannel = null;
-                FileChannel outputChannel = null;
-                try {
-                    inputChannel = new FileInputStream(this.provisioningProfile).getChannel();
-                    outputChannel = new FileOutputStream(dst).getChannel();
-                    outputChannel.transferFrom(inputChannel, 0, inputChannel.size());
-                } catch (Exception e) {
-                    System.out.println(e.getMessage());
-                } finally {
-                    inputChannel.close();
-                    outputChannel.close();
-                }
-                if (dst.exists()) {
-                    this.provisioningProfile = dst;
-                }
+            File profile = new File(provisioningProfilePath);
+            if (profile.exists()) {
+                this.provisioningProfileSource = profile;
             }
         }
 
@@ -152,32 +129,185 @@ public class AppBuild extends BaseTask {
             this.signingIdentity = signingIdentity;
         }
 
+        // Every configuration gets its own xcodebuild tree, builds with different settings don't
+        // overwrite each other and stay incremental; the app is published to the shared sym directory
+        final String outPath = buildPath + File.separator + MOE + File.separator + "xcodebuild";
+        publishedSymRoot = new File(outPath, "sym");
+        workDir = new File(outPath, getConfigurationHash());
+
+        // Directories are created by launch(), planning a build doesn't touch the file system
+        dstRoot = new File(workDir, "dst");
+        objRoot = new File(workDir, "obj");
+        symRoot = new File(workDir, "sym");
+        sharedPrecompsDir = new File(workDir, "precomps");
+
         log = new File(modulePath + "/build/logs", "xcodebuild-" + buildDate + ".log");
-        if (!log.getParentFile().exists()) {
-            log.getParentFile().mkdirs();
+    }
+
+    /**
+     * Sets cache the app is looked up in before xcodebuild runs, null builds every time.
+     */
+    public void setCache(ArtifactCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Logs to a fixed file name instead of one stamped with the build date.
+     */
+    public void setReproducible(boolean reproducible) {
+        log = new File(log.getParentFile(), reproducible ? "xcodebuild.log" : "xcodebuild-" + buildDate + ".log");
+    }
+
+    /**
+     * Enables gzip compression of the log file.
+     */
+    public void setCompressLogs(boolean compressLogs) {
+        this.compressLogs = compressLogs;
+    }
+
+    /**
+     * Sets store which installs the provisioning profile, profiles are installed to the default location otherwise.
+     */
+    public void setProvisioningProfileStore(ProvisioningProfileStore provisioningProfileStore) {
+        this.provisioningProfileStore = provisioningProfileStore;
+    }
+
+    private synchronized ProvisioningProfileStore getProvisioningProfileStore() {
+        if (provisioningProfileStore == null) {
+            provisioningProfileStore = new ProvisioningProfileStore(ProvisioningProfileStore.getDefaultInstallDirectory(),
+                    ProvisioningProfileStore.getDefaultIndexFile());
         }
-        log.createNewFile();
+        return provisioningProfileStore;
+    }
+
+    private File getLogFile() {
+        return compressLogs ? new File(log.getPath() + ".gz") : log;
+    }
+
+    @Override
+    public String getConfiguration() {
+        return targetName + " " + configuration + " " + sdk + " " + signingIdentity + " " + additionalParameters;
+    }
+
+    @Override
+    public Collection<File> getInputFiles() {
+        List<File> files = new ArrayList<File>();
+        files.add(xcodeProjectFile.getParentFile());
+        // Sources and resources referenced by the Xcode project
+        File sources = new File(modulePath, "src");
+        if (sources.exists()) {
+            files.add(sources);
+        }
+        if (provisioningProfileSource != null) {
+            files.add(provisioningProfileSource);
+        }
+        return files;
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        List<File> files = new ArrayList<File>();
+        files.add(getBuiltAppFile());
+        files.add(getAppFile());
+        return files;
+    }
+
+    private String getConfigurationHash() {
+        MessageDigest digest = FileHasher.newDigest();
+        digest.update(getConfiguration().getBytes(Charset.forName("UTF-8")));
+        if (provisioningProfileSource != null) {
+            digest.update(provisioningProfileSource.getAbsolutePath().getBytes(Charset.forName("UTF-8")));
+        }
+        return FileHasher.toHex(digest.digest()).substring(0, 16);
     }
 
     @Override
     void launch() {
         removeCustomScript();
-        launchXcodeBuild();
+
+        // Same configuration built concurrently by another build shares the directories
+        PathLock lock;
+        try {
+            lock = PathLock.acquire(new File(workDir.getPath() + ".lock"));
+        } catch (IOException e) {
+            throw new BuildException("Failed to lock " + workDir.getAbsolutePath() + ": " + e.getMessage(), e);
+        }
+        try {
+            createDirectories();
+
+            String cacheKey = null;
+            if (cache != null) {
+                cacheKey = computeCacheKey();
+                boolean restored = cache.restore(cacheKey, getBuiltAppFile());
+                getMetrics().recordCacheLookup(restored);
+                if (restored) {
+                    System.out.println(getName() + ": restored from cache");
+                    publishApp();
+                    return;
+                }
+            }
+
+            launchXcodeBuild();
+            publishApp();
+
+            if (cacheKey != null) {
+                cache.store(cacheKey, getBuiltAppFile());
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    /*
+    Xcode project doesn't list the dex2oat and ibtool outputs it bundles, outputs of dependencies are inputs too
+     */
+    private String computeCacheKey() {
+        List<File> inputs = new ArrayList<File>(getInputFiles());
+        for (BaseTask dependency : getDependencies()) {
+            inputs.addAll(dependency.getOutputFiles());
+        }
+        try {
+            return cache.computeKey(Collections.singletonList(getConfiguration()), inputs);
+        } catch (IOException e) {
+            throw new BuildException("Failed to hash inputs of " + getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void createDirectories() {
+        for (File dir : new File[]{dstRoot, objRoot, symRoot, sharedPrecompsDir, log.getParentFile()}) {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new BuildException("Failed to create " + dir.getAbsolutePath());
+            }
+        }
+    }
+
+    private void publishApp() {
+        File app = getAppFile();
+        try {
+            PathLock lock = PathLock.acquire(new File(app.getPath() + ".lock"));
+            try {
+                ArtifactPromoter.promote(getBuiltAppFile(), app);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            throw new BuildException("Failed to publish " + app.getAbsolutePath() + ": " + e.getMessage(), e);
+        }
     }
 
     private void removeCustomScript() {
         XCodeProjectFormatter formatter = new XCodeProjectFormatter();
         boolean isFoundShellScript = formatter.removeShellScripts(xcodeProjectFile.getParent(), targetName, modulePath);
         if (isFoundShellScript) {
-            System.err.print("Error: ShellScript section in Xcode project is prohibited");
-            System.exit(1);
+            throw new BuildException("ShellScript section in Xcode project is prohibited");
         } else {
             System.out.println("Custom Script was removed!");
         }
     }
 
     private void launchXcodeBuild() {
-        SimpleExec exec = SimpleExec.getExec("xcodebuild");
+        // Both streams go to the log, one pipe is enough
+        Command exec = new Command("xcodebuild").setMergeErrors(true);
 
         ArrayList<String> args = exec.getArguments();
 
@@ -204,82 +334,60 @@ public class AppBuild extends BaseTask {
         args.add("SHARED_PRECOMPS_DIR=" + sharedPrecompsDir.getAbsolutePath());
 
 
-        if ((this.provisioningProfile != null) && (this.signingIdentity != null)) {
-            String uuid = null;
+        if ((this.provisioningProfileSource != null) && (this.signingIdentity != null)) {
             try {
-                uuid = ProvisioningProfile.getUUIDFromProfile(this.provisioningProfile);
-                args.add("PROVISIONING_PROFILE=" + uuid);
-            } catch (Exception e) {
-                System.out.println("Invalid provisioning profile! Default one will be chosen!");
-            }
-            if (uuid != null) {
+                ProvisioningProfileStore.Entry profile = getProvisioningProfileStore().install(provisioningProfileSource);
+                if (profile.isExpired()) {
+                    System.err.println("Warning: provisioning profile " + profile.getUuid() + " expired on " + profile.getExpirationDate());
+                }
+                args.add("PROVISIONING_PROFILE=" + profile.getUuid());
                 args.add("CODE_SIGN_IDENTITY=" + this.signingIdentity);
+            } catch (IOException e) {
+                System.out.println("Invalid provisioning profile! Default one will be chosen! " + e.getMessage());
             }
         }
 
-        FileOutputStream ostream = null;
-
+        AsyncLogSink logSink;
         try {
-            ostream = new FileOutputStream(log);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-
-        // TODO: implement ExecRunnerWithLog class
-        final FileOutputStream finalOstream = ostream;
-        assert finalOstream != null;
-
-        try {
-            final ExecRunner runner = exec.getRunner();
-            runner.setListener(new ExecRunnerBase.ExecRunnerListener() {
-                final String newLine = System.getProperty("line.separator");
-
-                @Override
-                public void stdout(String line) {
-                    try {
-                        finalOstream.write((line + newLine).getBytes());
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-
-                @Override
-                public void stderr(String line) {
-                    try {
-                        finalOstream.write((line + newLine).getBytes());
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
-            int returnCode = runner.run(null);
-            if (returnCode != 0) {
-                System.err.println("Failed " + exec.getExecPath());
-                System.exit(returnCode);
-            }
-
+            logSink = new AsyncLogSink(getLogFile(), compressLogs);
         } catch (IOException e) {
-            System.err.println("App build failed: " + e.getMessage());
-            System.exit(1);
+            throw new BuildException("Failed to create " + getLogFile().getAbsolutePath() + ": " + e.getMessage(), e);
         }
 
+        // Log is closed even on failure, otherwise its tail would be lost
         try {
-            finalOstream.flush();
-            finalOstream.close();
-        } catch (IOException ignored) {
-        }
-
-        if (!this.provisioningProfile.delete()){
-            System.out.println(provisioningProfile.getAbsolutePath() + " was not deleted!");
+            run(exec, new LogSinkListener(logSink));
+        } finally {
+            closeLog(logSink);
         }
     }
 
+    /**
+     * Returns the app published for other tools, the latest build of the configuration and sdk.
+     */
     public File getAppFile() {
+        return new File(publishedSymRoot.getAbsolutePath() + "/" + configuration + "-" + sdk + "/" + targetName + ".app");
+    }
+
+    /**
+     * Returns the app in the private directory of this build.
+     */
+    public File getBuiltAppFile() {
         return new File(symRoot.getAbsolutePath() + "/" + configuration + "-" + sdk + "/" + targetName + ".app");
     }
 
+    /**
+     * Returns the private directory of this build.
+     */
     public String getOutPath() {
-        return buildPath + File.separator + MOE + File.separator + "xcodebuild";
+        return workDir.getAbsolutePath();
     }
 
+    private static void closeLog(AsyncLogSink logSink) {
+        try {
+            logSink.close();
+        } catch (IOException e) {
+            System.err.println("Failed to write " + logSink.getFile().getAbsolutePath() + ": " + e.getMessage());
+        }
+    }
 }
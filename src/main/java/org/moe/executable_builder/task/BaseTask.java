@@ -16,11 +16,227 @@ limitations under the License.
 
 package org.moe.executable_builder.task;
 
+import org.moe.executable_builder.exec.Command;
+import org.moe.executable_builder.exec.LocalProcessExecutor;
+import org.moe.executable_builder.exec.OutputListener;
+import org.moe.executable_builder.exec.OutputTail;
+import org.moe.executable_builder.exec.ProcessExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 public abstract class BaseTask {
 
     public static final String MOE = "moe";
 
+    /*
+    Last lines of output of a failed child process put in the failure message
+     */
+    private static final int FAILURE_TAIL_LINES = 20;
+    private static final int FAILURE_TAIL_CHARS = 4096;
+
+    /*
+    Tasks which have to be finished before this one is launched
+     */
+    private final List<BaseTask> dependencies = new ArrayList<BaseTask>();
+
+    private final TaskMetrics metrics = new TaskMetrics(this);
+
+    private ProcessExecutor executor = LocalProcessExecutor.getDefault();
+
+    private long timeoutMillis;
+
+    private volatile long deadlineNanos;
+
+    private volatile boolean cancelled;
+
+    private volatile boolean timedOut;
+
+    /**
+     * Does the work of the task, failures are reported with {@link BuildException}.
+     */
     abstract void launch();
 
-    // TODO: is there much more common between tasks?
+    /**
+     * Runs the task and records its metrics.
+     *
+     * @throws BuildException if the task failed, timed out or was cancelled
+     */
+    final void execute() {
+        if (cancelled) {
+            throw newFailure(new BuildException(getName() + " was cancelled"));
+        }
+
+        metrics.start();
+        deadlineNanos = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        TaskMetrics.Status status = TaskMetrics.Status.FAILED;
+        try {
+            launch();
+            checkCancelled();
+            status = TaskMetrics.Status.SUCCESS;
+        } catch (BuildException e) {
+            throw newFailure(e);
+        } catch (RuntimeException e) {
+            throw newFailure(new BuildException(getName() + " failed: " + e.getMessage(), e));
+        } finally {
+            if (status == TaskMetrics.Status.FAILED && cancelled && !timedOut) {
+                status = TaskMetrics.Status.CANCELLED;
+            }
+            metrics.finish(status);
+        }
+    }
+
+    private BuildException newFailure(BuildException e) {
+        e.setTask(this);
+        return e;
+    }
+
+    /**
+     * Sets how long the task may run, 0 means no limit. Child processes of a task which
+     * runs out of time are killed and the task fails.
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        this.timeoutMillis = unit.toMillis(timeout);
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Asks the task to stop, its running child processes are killed and tasks which haven't
+     * been launched yet fail immediately.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Fails the task if it was cancelled or ran out of time.
+     */
+    void checkCancelled() {
+        if (deadlineNanos != 0 && System.nanoTime() - deadlineNanos > 0) {
+            timedOut = true;
+            cancelled = true;
+        }
+        if (timedOut) {
+            throw new BuildException(getName() + " timed out after " + timeoutMillis / 1000.0 + " s");
+        }
+        if (cancelled) {
+            throw new BuildException(getName() + " was cancelled");
+        }
+    }
+
+    /**
+     * Sets executor launching child processes of the task.
+     */
+    public void setExecutor(ProcessExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Runs a child process which is killed when the task is cancelled or runs out of time.
+     *
+     * @throws BuildException if the process couldn't be launched, was killed or exited with non-zero code
+     */
+    void run(Command command, OutputListener listener) {
+        OutputTail tail = new OutputTail(listener, FAILURE_TAIL_LINES, FAILURE_TAIL_CHARS);
+        int returnCode;
+        try {
+            returnCode = executor.execute(command, tail, getKillCondition());
+        } catch (IOException e) {
+            checkCancelled();
+            throw new BuildException("Failed to run " + command.getExecutable() + ": " + e.getMessage(), e);
+        }
+        metrics.setExitCode(returnCode);
+        checkCancelled();
+        if (returnCode != 0) {
+            StringBuilder message = new StringBuilder("Failed " + command.getExecutable() + ", exit code " + returnCode);
+            for (String line : tail.getLines()) {
+                message.append(System.getProperty("line.separator")).append("    ").append(line);
+            }
+            throw new BuildException(message.toString(), returnCode);
+        }
+    }
+
+    /**
+     * Returns condition which kills child processes of the task when it is cancelled or runs out of time.
+     */
+    ProcessExecutor.KillCondition getKillCondition() {
+        return new ProcessExecutor.KillCondition() {
+            @Override
+            public boolean needsKill() {
+                if (deadlineNanos != 0 && System.nanoTime() - deadlineNanos > 0) {
+                    timedOut = true;
+                    cancelled = true;
+                }
+                return cancelled;
+            }
+        };
+    }
+
+    /**
+     * Returns name of the task, used in logs and error messages.
+     */
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Declares that this task can be launched only after all given tasks have finished.
+     */
+    public void dependsOn(BaseTask... tasks) {
+        for (BaseTask task : tasks) {
+            if (task == null || task == this) {
+                throw new IllegalArgumentException("Invalid dependency for task " + getName());
+            }
+            if (!dependencies.contains(task)) {
+                dependencies.add(task);
+            }
+        }
+    }
+
+    public List<BaseTask> getDependencies() {
+        return Collections.unmodifiableList(dependencies);
+    }
+
+    /**
+     * Returns settings of the task which are not part of its input files, e.g. command line
+     * arguments. Task has to be launched again when they change.
+     */
+    public String getConfiguration() {
+        return "";
+    }
+
+    /**
+     * Returns files and directories read by the task.
+     */
+    public Collection<File> getInputFiles() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns files and directories produced by the task.
+     */
+    public Collection<File> getOutputFiles() {
+        return Collections.emptyList();
+    }
+
+    public TaskMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
 }
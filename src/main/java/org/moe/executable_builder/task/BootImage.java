@@ -0,0 +1,228 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task;
+
+import org.apache.commons.io.FileUtils;
+import org.moe.common.defaults.Dex2OatDefaults;
+import org.moe.common.sdk.MOESDK;
+import org.moe.common.utils.FileUtil;
+import org.moe.common.variant.ArchitectureVariant;
+import org.moe.executable_builder.exec.Command;
+import org.moe.executable_builder.helpers.FileHasher;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compiles the SDK framework (moe-core bindings) into a boot image shared by all apps.
+ * The image is stored in a directory named after the content hash of the SDK dex files,
+ * the dex2oat binary, the image classes, the architecture, the base address and the compiler
+ * settings, so it's compiled once per SDK, architecture and profile and stays valid until any
+ * of them changes.
+ */
+public class BootImage extends BaseTask {
+
+    static final String IMAGE_NAME = "boot.art";
+    static final String OAT_NAME = "boot.oat";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final FileHasher hasher = new FileHasher();
+
+    private String archFamily;
+    private String archName;
+    private long base;
+    private List<File> dexFiles;
+    private File imageClasses;
+    private File dex2oatExec;
+
+    private File directory;
+    private File image;
+    private File oat;
+
+    private int threads;
+
+    private Dex2oatProfile profile;
+
+    private List<String> extraFlags;
+
+    public BootImage(MOESDK sdk, ArchitectureVariant architectureVariant, Dex2oatProfile profile,
+                     List<String> extraFlags, File root) throws IOException {
+        this.profile = profile;
+        this.extraFlags = extraFlags;
+        this.archFamily = architectureVariant.getFamilyName();
+        this.archName = architectureVariant.getArchName();
+        this.base = Dex2OatDefaults.getDefaultBaseForArchFamily(archFamily);
+
+        dexFiles = new ArrayList<File>();
+        for (File mainDexFile : sdk.getBindings().getMainDexFiles()) {
+            dexFiles.add(FileUtil.checkFile(mainDexFile));
+        }
+        dex2oatExec = FileUtil.checkFile(sdk.getTools().dex2OatExec());
+        imageClasses = FileUtil.checkFile(sdk.getTools().preloadedClasses());
+
+        this.directory = new File(root, archName + "-" + computeKey());
+        this.image = new File(directory, IMAGE_NAME);
+        this.oat = new File(directory, OAT_NAME);
+    }
+
+    public static File getDefaultDirectory() {
+        return new File(System.getProperty("user.home"), "." + BaseTask.MOE + File.separator + "cache" + File.separator + "boot");
+    }
+
+    private String computeKey() throws IOException {
+        MessageDigest digest = FileHasher.newDigest();
+        List<String> values = new ArrayList<String>();
+        values.add(archFamily);
+        values.add(archName);
+        values.add(Long.toHexString(base));
+        values.addAll(profile.getArguments());
+        values.addAll(extraFlags);
+        for (String value : values) {
+            digest.update(value.getBytes(UTF_8));
+            digest.update((byte) 0);
+        }
+        for (File input : getInputFiles()) {
+            // Only the content matters, the image is shared by SDKs installed in different places
+            digest.update(hasher.hash(input).getBytes(UTF_8));
+            digest.update((byte) 0);
+        }
+        return FileHasher.toHex(digest.digest());
+    }
+
+    @Override
+    public String getName() {
+        return "BootImage-" + archName;
+    }
+
+    public String getArchName() {
+        return archName;
+    }
+
+    /**
+     * Returns dex files compiled into the image, apps compiled against it need them on their boot class path.
+     */
+    public List<File> getDexFiles() {
+        return dexFiles;
+    }
+
+    public File getImage() {
+        return image;
+    }
+
+    public File getOat() {
+        return oat;
+    }
+
+    /**
+     * Returns name of the oat file recorded in the image, apps ship the oat file under this name
+     * next to the image, so images of different architectures don't collide.
+     */
+    public String getOatLocation() {
+        return archName + "-" + OAT_NAME;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    @Override
+    public Collection<File> getInputFiles() {
+        ArrayList<File> files = new ArrayList<File>(dexFiles);
+        files.add(imageClasses);
+        files.add(dex2oatExec);
+        return files;
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        ArrayList<File> files = new ArrayList<File>();
+        files.add(image);
+        files.add(oat);
+        return files;
+    }
+
+    @Override
+    public String getConfiguration() {
+        // Everything the image depends on is part of its directory name
+        return directory.getAbsolutePath();
+    }
+
+    private ArrayList<String> getArguments(File outDir) {
+        ArrayList<String> args = new ArrayList<String>();
+
+        args.add("--instruction-set=" + archFamily);
+        args.add("--base=0x" + Long.toHexString(base));
+        args.addAll(profile.getArguments());
+        if (threads > 0) {
+            args.add("-j" + threads);
+        }
+        args.addAll(extraFlags);
+
+        args.add("--image=" + new File(outDir, IMAGE_NAME).getAbsolutePath());
+        args.add("--image-classes=" + imageClasses.getAbsolutePath());
+        args.add("--oat-file=" + new File(outDir, OAT_NAME).getAbsolutePath());
+        args.add("--oat-location=" + getOatLocation());
+
+        StringBuilder files = new StringBuilder();
+        for (File dexFile : dexFiles) {
+            if (files.length() > 0) {
+                files.append(':');
+            }
+            files.append(dexFile.getAbsolutePath());
+        }
+        args.add("--dex-file=" + files);
+
+        return args;
+    }
+
+    @Override
+    void launch() {
+        if (image.isFile() && oat.isFile()) {
+            System.out.println(getName() + ": reusing " + directory.getAbsolutePath());
+            getMetrics().markReused();
+            return;
+        }
+
+        // Other builds may compile the same image concurrently, the first complete one wins
+        File temp = new File(directory.getParentFile(), directory.getName() + TEMP_SUFFIX + System.nanoTime());
+        try {
+            if (!temp.mkdirs()) {
+                throw new BuildException("Failed to create " + temp.getAbsolutePath());
+            }
+
+            Command exec = new Command(dex2oatExec.getAbsolutePath());
+            exec.getArguments().addAll(getArguments(temp));
+            run(exec, new ConsoleListener());
+
+            if (!new File(temp, IMAGE_NAME).isFile() || !new File(temp, OAT_NAME).isFile()) {
+                throw new BuildException("Dex2oat didn't produce the boot image");
+            }
+            if (!temp.renameTo(directory) && !(image.isFile() && oat.isFile())) {
+                throw new BuildException("Failed to move " + temp.getAbsolutePath() + " to " + directory.getAbsolutePath());
+            }
+        } finally {
+            FileUtils.deleteQuietly(temp);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task;
+
+/**
+ * Failure of a task. Thrown instead of ending the process, so the task manager can cancel
+ * the remaining tasks and the build daemon keeps serving other builds.
+ */
+public class BuildException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int exitCode;
+
+    private BaseTask task;
+
+    public BuildException(String message) {
+        this(message, 1);
+    }
+
+    public BuildException(String message, int exitCode) {
+        super(message);
+        this.exitCode = exitCode;
+    }
+
+    public BuildException(String message, Throwable cause) {
+        super(message, cause);
+        this.exitCode = 1;
+    }
+
+    /**
+     * Returns exit code of the failed child process, or 1 if the failure wasn't caused by one.
+     */
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * Returns the task which failed, null if the failure happened outside of tasks.
+     */
+    public BaseTask getTask() {
+        return task;
+    }
+
+    void setTask(BaseTask task) {
+        if (this.task == null) {
+            this.task = task;
+        }
+    }
+}
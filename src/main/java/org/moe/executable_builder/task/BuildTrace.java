@@ -0,0 +1,111 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes task metrics in the Chrome trace event format. Every task is a complete ("X") event,
+ * tasks which ran on the same worker thread share the same track.
+ */
+class BuildTrace {
+
+    static void write(File file, List<BaseTask> tasks) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create " + parent.getAbsolutePath());
+        }
+
+        Map<String, Integer> threadIds = new HashMap<String, Integer>();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+            boolean first = true;
+            for (BaseTask task : tasks) {
+                TaskMetrics metrics = task.getMetrics();
+                if (metrics.getStatus() == TaskMetrics.Status.NOT_RUN) {
+                    continue;
+                }
+
+                Integer threadId = threadIds.get(metrics.getThreadName());
+                if (threadId == null) {
+                    threadId = threadIds.size() + 1;
+                    threadIds.put(metrics.getThreadName(), threadId);
+                }
+
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+
+                writer.write("\n{\"name\":" + quote(metrics.getTaskName()));
+                writer.write(",\"cat\":\"task\",\"ph\":\"X\",\"pid\":1,\"tid\":" + threadId);
+                writer.write(",\"ts\":" + metrics.getStartTimeMillis() * 1000);
+                writer.write(",\"dur\":" + metrics.getWallTimeNanos() / 1000);
+                writer.write(",\"args\":{");
+                writer.write("\"status\":" + quote(metrics.getStatus().name()));
+                writer.write(",\"inputBytes\":" + metrics.getInputBytes());
+                writer.write(",\"outputBytes\":" + metrics.getOutputBytes());
+                writer.write(",\"exitCode\":" + metrics.getExitCode());
+                writer.write("}}");
+            }
+            writer.write("\n]}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    static String quote(String value) {
+        StringBuilder builder = new StringBuilder(value.length() + 2);
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        builder.append('"');
+        return builder.toString();
+    }
+}
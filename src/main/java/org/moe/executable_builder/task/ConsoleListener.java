@@ -0,0 +1,37 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task;
+
+import org.moe.executable_builder.exec.OutputListener;
+
+/**
+ * Prints stdout and stderr of a child process to the console of the build.
+ */
+class ConsoleListener implements OutputListener {
+
+    private static final String NEW_LINE = System.getProperty("line.separator");
+
+    @Override
+    public void stdout(String line) {
+        System.out.print(line + NEW_LINE);
+    }
+
+    @Override
+    public void stderr(String line) {
+        System.err.print(line + NEW_LINE);
+    }
+}
@@ -16,32 +16,41 @@ limitations under the License.
 
 package org.moe.executable_builder.task;
 
-import org.moe.common.exec.ExecOutputCollector;
+import org.apache.commons.io.FileUtils;
 import org.moe.common.defaults.Dex2OatDefaults;
-import org.moe.common.exec.SimpleExec;
 import org.moe.common.sdk.MOESDK;
 import org.moe.common.utils.FileUtil;
 import org.moe.common.variant.ArchitectureVariant;
 import org.moe.common.variant.ModeVariant;
 import org.moe.common.variant.TargetVariant;
+import org.moe.executable_builder.exec.Command;
+import org.moe.executable_builder.helpers.ArtifactPromoter;
+import org.moe.executable_builder.helpers.AsyncLogSink;
+import org.moe.executable_builder.helpers.PathLock;
+import org.moe.executable_builder.task.cache.ArtifactCache;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 public class Dex2oat extends BaseTask {
 
-    static final private String[] BACKENDS = new String[]{"Quick"};
     static final private String INPUT_DIR = "dex";
 
     /*
     Task inputs
     */
     private String archFamily;
+    private String archName;
     private long base;
     private File imageClasses;
     private Collection<File> inputFiles;
+    private Collection<File> appDexFiles;
     private File dex2oatExec;
 
     /*
@@ -49,8 +58,27 @@ public class Dex2oat extends BaseTask {
      */
     private File destImage;
     private File destOat;
+    private File destBootOat;
     private File log;
 
+    private ArtifactCache cache;
+
+    private BootImage bootImage;
+
+    private Dex2oatProfile profile = Dex2oatProfile.BALANCED;
+
+    private List<String> extraFlags = Collections.emptyList();
+
+    private File profileFile;
+
+    private double topKProfileThreshold;
+
+    private int threads;
+
+    private boolean compressLogs;
+
+    private boolean reproducible;
+
 
     public Dex2oat(MOESDK sdk,
                    String modulePath,
@@ -62,6 +90,7 @@ public class Dex2oat extends BaseTask {
 
         FileUtil.checkFile(new File(modulePath));
         this.archFamily = architectureVariant.getFamilyName();
+        this.archName = architectureVariant.getArchName();
 
         final String buildPath = modulePath + File.separator + "build";
         final String outPath = buildPath + File.separator +
@@ -70,13 +99,13 @@ public class Dex2oat extends BaseTask {
                 "xcode" + File.separator +
                 mode.getName() + "-" + targetVariant.getPlatformName();
 
-        new File(outPath).mkdirs();
-
         inputFiles = new ArrayList<File>();
+        appDexFiles = new ArrayList<File>();
 
         for (String dexFile : dexFiles) {
             File inputFile = new File(buildPath, BaseTask.MOE + "/" + sourceSet + "/" + mode.getName() + "/" + dexFile + ".jar");
             inputFiles.add(FileUtil.checkFile(inputFile));
+            appDexFiles.add(inputFile);
         }
         for (File mainDexFile : sdk.getBindings().getMainDexFiles()) {
             inputFiles.add(FileUtil.checkFile(mainDexFile));
@@ -90,47 +119,391 @@ public class Dex2oat extends BaseTask {
 
         this.destImage = new File(outPath, architectureVariant.getArchName() + ".art");
         this.destOat = new File(outPath, architectureVariant.getArchName() + ".oat");
-        this.log = new File(outPath, "dex2oat.log");
+        this.log = new File(outPath, "dex2oat-" + architectureVariant.getArchName() + ".log");
     }
 
-    private String getCompilerBackend() {
-        return BACKENDS[0];
+    /**
+     * Creates task from already resolved inputs, used by benchmarks.
+     */
+    Dex2oat(String archFamily,
+            String archName,
+            long base,
+            File dex2oatExec,
+            File imageClasses,
+            Collection<File> inputFiles,
+            File outDir) {
+        this.archFamily = archFamily;
+        this.archName = archName;
+        this.base = base;
+        this.dex2oatExec = dex2oatExec;
+        this.imageClasses = imageClasses;
+        this.inputFiles = new ArrayList<File>(inputFiles);
+        this.appDexFiles = new ArrayList<File>(inputFiles);
+
+        this.destImage = new File(outDir, archName + ".art");
+        this.destOat = new File(outDir, archName + ".oat");
+        this.log = new File(outDir, "dex2oat-" + archName + ".log");
     }
 
     @Override
-    void launch() {
-        try {
-            SimpleExec exec = SimpleExec.getExec(dex2oatExec.getAbsolutePath());
+    public String getName() {
+        return "Dex2oat-" + archName;
+    }
+
+    @Override
+    public Collection<File> getInputFiles() {
+        ArrayList<File> files = new ArrayList<File>(inputFiles);
+        if (bootImage != null) {
+            files.addAll(bootImage.getDexFiles());
+            files.add(bootImage.getImage());
+            files.add(bootImage.getOat());
+        } else {
+            files.add(imageClasses);
+        }
+        if (profileFile != null) {
+            files.add(profileFile);
+        }
+        files.add(dex2oatExec);
+        return files;
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        ArrayList<File> files = new ArrayList<File>();
+        files.add(destImage);
+        files.add(destOat);
+        if (destBootOat != null) {
+            files.add(destBootOat);
+        }
+        return files;
+    }
+
+    /**
+     * Returns dex files of the app, without those of the SDK.
+     */
+    public Collection<File> getAppDexFiles() {
+        return appDexFiles;
+    }
+
+    public File getOutDir() {
+        return destOat.getParentFile();
+    }
+
+    /**
+     * Replaces the SDK preloaded classes list with another list of classes to put in the image.
+     * Has no effect when compiling against a shared boot image.
+     */
+    public void setImageClasses(File imageClasses) {
+        this.imageClasses = imageClasses;
+    }
+
+    public void setCache(ArtifactCache cache) {
+        this.cache = cache;
+    }
 
-            ArrayList<String> args = exec.getArguments();
+    /**
+     * Compiles only the app against the shared framework boot image instead of compiling
+     * the framework together with the app. The boot image is copied next to the app oat file.
+     */
+    public void setBootImage(BootImage bootImage) {
+        this.bootImage = bootImage;
+        if (bootImage != null) {
+            inputFiles.removeAll(bootImage.getDexFiles());
+            destBootOat = new File(destOat.getParentFile(), bootImage.getOatLocation());
+        } else {
+            destBootOat = null;
+        }
+    }
+
+    public Dex2oatProfile getProfile() {
+        return profile;
+    }
+
+    public void setProfile(Dex2oatProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * Sets flags passed to dex2oat after those of the profile.
+     */
+    public void setExtraFlags(List<String> extraFlags) {
+        this.extraFlags = extraFlags;
+    }
+
+    /**
+     * Sets method profile recorded on devices, dex2oat optimises methods the profile marks as hot.
+     *
+     * @param profileFile  profile file, null compiles without profile
+     * @param topKThreshold percentage of samples covered by methods considered hot, 0 leaves the choice to dex2oat
+     */
+    public void setProfileFile(File profileFile, double topKThreshold) {
+        this.profileFile = profileFile;
+        this.topKProfileThreshold = topKThreshold;
+    }
+
+    /**
+     * Returns default location of the method profile of a source set, build/moe/profiles/&lt;source set&gt;.prof
+     */
+    public static File getDefaultProfileFile(String modulePath, String sourceSet) {
+        return new File(modulePath, "build" + File.separator + BaseTask.MOE + File.separator +
+                "profiles" + File.separator + sourceSet + ".prof");
+    }
+
+    /**
+     * Sets number of compiler threads of dex2oat, 0 leaves the choice to dex2oat.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Enables gzip compression of the log file.
+     */
+    public void setCompressLogs(boolean compressLogs) {
+        this.compressLogs = compressLogs;
+    }
+
+    private File getLogFile() {
+        return compressLogs ? new File(log.getPath() + ".gz") : log;
+    }
+
+    /**
+     * Compiles on a single thread and passes canonical paths to dex2oat, so the output doesn't depend
+     * on scheduling or on the path the module was reached through.
+     */
+    public void setReproducible(boolean reproducible) {
+        this.reproducible = reproducible;
+    }
+
+    /**
+     * Splits available processors between dex2oat processes running at the same time.
+     *
+     * @param concurrentTasks number of dex2oat tasks which may run in parallel
+     */
+    public static int getDefaultThreads(int concurrentTasks) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, processors / Math.max(1, concurrentTasks));
+    }
+
+    /**
+     * Returns dex2oat arguments of this task.
+     */
+    ArrayList<String> getArguments() {
+        return getArguments(destImage, destOat, true);
+    }
 
-            // Set target options
-            args.add("--instruction-set=" + archFamily);
+    /**
+     * Returns arguments the cache key is computed from. The thread count only changes scheduling, it's left
+     * out so machines with different processors share entries. Reproducible builds keep their -j1, their
+     * output must not be replaced by one compiled on several threads.
+     */
+    private ArrayList<String> getCacheKeyArguments() {
+        return getArguments(destImage, destOat, reproducible);
+    }
+
+    /**
+     * Returns dex2oat arguments writing the image and oat file to the given locations.
+     * The oat file keeps recording its final location.
+     */
+    private ArrayList<String> getArguments(File image, File oat, boolean withThreads) {
+        ArrayList<String> args = new ArrayList<String>();
+
+        // Set target options
+        args.add("--instruction-set=" + archFamily);
+        if (bootImage == null) {
             args.add("--base=0x" + Long.toHexString(base));
+        }
+
+        // Set compiler options
+        args.addAll(profile.getArguments());
+        if (withThreads && reproducible) {
+            args.add("-j1");
+        } else if (withThreads && threads > 0) {
+            args.add("-j" + threads);
+        }
+        if (profileFile != null) {
+            args.add("--profile-file=" + path(profileFile));
+            if (topKProfileThreshold > 0) {
+                args.add("--top-k-profile-threshold=" + topKProfileThreshold);
+            }
+        }
+        args.addAll(extraFlags);
+
+        // Set files
+        if (bootImage != null) {
+            args.add("--boot-image=" + path(bootImage.getImage()));
+            args.add("--runtime-arg");
+            args.add("-Xbootclasspath:" + joinPaths(bootImage.getDexFiles()));
+        } else {
+            args.add("--image=" + path(image));
+            args.add("--image-classes=" + path(imageClasses));
+        }
+        args.add("--oat-file=" + path(oat));
+        if (!oat.equals(destOat)) {
+            args.add("--oat-location=" + path(destOat));
+        }
+
+        // Set inputs
+        args.add("--dex-file=" + joinPaths(inputFiles));
+
+        return args;
+    }
+
+    private String joinPaths(Collection<File> files) {
+        StringBuilder paths = new StringBuilder();
+        for (File file : files) {
+            if (paths.length() > 0) {
+                paths.append(':');
+            }
+            paths.append(path(file));
+        }
+        return paths.toString();
+    }
+
+    /**
+     * Returns path passed to dex2oat, dex2oat records dex and oat locations in its output.
+     */
+    private String path(File file) {
+        if (reproducible) {
+            try {
+                return file.getCanonicalPath();
+            } catch (IOException e) {
+                // Fall back to the absolute path, the file may not exist yet
+            }
+        }
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * Places a copy of the shared boot image next to the app oat file. Hard links are used
+     * where possible, so apps don't pay for the framework in disk space.
+     */
+    private void installBootImage() throws IOException {
+        linkOrCopy(bootImage.getImage(), destImage);
+        linkOrCopy(bootImage.getOat(), destBootOat);
+    }
+
+    private static void linkOrCopy(File source, File destination) throws IOException {
+        File temp = new File(destination.getParentFile(), destination.getName() + ".tmp" + System.nanoTime());
+        try {
+            try {
+                Files.createLink(temp.toPath(), source.toPath());
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(source.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            ArtifactPromoter.replace(temp, destination);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
 
-            // Set compiler backend
-            args.add("--compiler-backend=" + getCompilerBackend());
+    @Override
+    public String getConfiguration() {
+        return dex2oatExec.getAbsolutePath() + " " + getArguments();
+    }
+
+    @Override
+    void launch() {
+        // With a shared boot image only the app oat file is produced by this task
+        File[] compiled = bootImage != null ? new File[]{destOat} : new File[]{destImage, destOat};
 
-            // Set files
-            args.add("--image=" + destImage.getAbsolutePath());
-            args.add("--image-classes=" + imageClasses.getAbsolutePath());
-            args.add("--oat-file=" + destOat.getAbsolutePath());
+        // Outputs are written to a temporary directory first, concurrent builds never see partial files.
+        // The oat file records the image location, so the directory is fixed and builds take turns on it.
+        File tempDir = new File(getOutDir(), "." + archName + "-tmp");
+        File[] temp = new File[compiled.length];
+        for (int i = 0; i < compiled.length; i++) {
+            temp[i] = new File(tempDir, compiled[i].getName());
+        }
+
+        Command exec;
+        String cacheKey = null;
+        PathLock lock = null;
+        try {
+            // Created here rather than by the constructor, planning a build doesn't touch the file system
+            File outDir = getOutDir();
+            if (!outDir.isDirectory() && !outDir.mkdirs()) {
+                throw new IOException("Failed to create " + outDir.getAbsolutePath());
+            }
 
-            // Set inputs
-            StringBuilder dexFiles = new StringBuilder();
-            for (File inputFile : inputFiles) {
-                if (dexFiles.length() > 0) {
-                    dexFiles.append(':');
+            if (bootImage != null) {
+                installBootImage();
+            }
+
+            if (cache != null) {
+                cacheKey = cache.computeKey(getCacheKeyArguments(), getInputFiles());
+                boolean restored = cache.restore(cacheKey, compiled);
+                getMetrics().recordCacheLookup(restored);
+                if (restored) {
+                    System.out.println(getName() + ": restored from cache");
+                    return;
                 }
-                dexFiles.append(inputFile.getAbsolutePath());
             }
-            args.add("--dex-file=" + dexFiles);
 
-            // TODO: implement logger to file. (and console?)
+            lock = PathLock.acquire(new File(tempDir.getPath() + ".lock"));
+            FileUtils.deleteDirectory(tempDir);
+            if (!tempDir.mkdirs()) {
+                throw new IOException("Failed to create " + tempDir.getAbsolutePath());
+            }
+            exec = new Command(dex2oatExec.getAbsolutePath());
+            exec.getArguments().addAll(getArguments(new File(tempDir, destImage.getName()), new File(tempDir, destOat.getName()), true));
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(tempDir);
+            if (lock != null) {
+                lock.release();
+            }
+            throw new BuildException("Dex2oat failed: " + e.getMessage(), e);
+        }
+
+        AsyncLogSink logSink;
+        try {
+            logSink = new AsyncLogSink(getLogFile(), compressLogs);
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(tempDir);
+            lock.release();
+            throw new BuildException("Failed to create " + getLogFile().getAbsolutePath() + ": " + e.getMessage(), e);
+        }
 
-            System.out.println(ExecOutputCollector.collect(exec));
-        } catch (Exception e) {
-            System.err.println("Dex2oat failed: " + e.getMessage());
+        try {
+            try {
+                run(exec, new LogSinkListener(logSink));
+            } finally {
+                closeLog(logSink);
+            }
+
+            if (!allFiles(temp)) {
+                throw new BuildException("Dex2oat didn't produce " + destOat.getAbsolutePath());
+            }
+            for (int i = 0; i < compiled.length; i++) {
+                ArtifactPromoter.replace(temp[i], compiled[i]);
+            }
+        } catch (IOException e) {
+            throw new BuildException("Dex2oat failed: " + e.getMessage(), e);
+        } finally {
+            FileUtils.deleteQuietly(tempDir);
+            if (lock != null) {
+                lock.release();
+            }
+        }
+
+        if (cacheKey != null) {
+            cache.store(cacheKey, compiled);
+        }
+    }
+
+    private static void closeLog(AsyncLogSink logSink) {
+        try {
+            logSink.close();
+        } catch (IOException e) {
+            System.err.println("Failed to write " + logSink.getFile().getAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean allFiles(File[] files) {
+        for (File file : files) {
+            if (!file.isFile()) {
+                return false;
+            }
         }
+        return true;
     }
 }
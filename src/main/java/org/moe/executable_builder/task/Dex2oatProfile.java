@@ -0,0 +1,120 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task;
+
+import org.moe.common.variant.ModeVariant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Predefined dex2oat settings. Debug builds trade runtime speed for short compilation, other builds
+ * keep the default settings of dex2oat unless another profile is chosen. Compiler threads aren't part
+ * of a profile, they depend on the machine and are set with -dex2oat_threads.
+ */
+public enum Dex2oatProfile {
+
+    /**
+     * Skips compilation of large methods, they run in the interpreter.
+     */
+    FAST_DEBUG("fast-debug", "Quick", "space"),
+
+    /**
+     * Default settings of dex2oat, the ones all builds used before profiles.
+     */
+    BALANCED("balanced", "Quick", null),
+
+    /**
+     * Optimizing backend compiling all methods, without debug symbols. Used only when chosen.
+     */
+    RELEASE_OPTIMISED("release-optimised", "Optimizing", "speed", "--no-include-debug-symbols");
+
+    private final String name;
+    private final String backend;
+    private final String compilerFilter;
+    private final List<String> flags;
+
+    Dex2oatProfile(String name, String backend, String compilerFilter, String... flags) {
+        this.name = name;
+        this.backend = backend;
+        this.compilerFilter = compilerFilter;
+        this.flags = Collections.unmodifiableList(Arrays.asList(flags));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getBackend() {
+        return backend;
+    }
+
+    /**
+     * Returns value of --compiler-filter, null if dex2oat chooses.
+     */
+    public String getCompilerFilter() {
+        return compilerFilter;
+    }
+
+    public List<String> getFlags() {
+        return flags;
+    }
+
+    /**
+     * Returns dex2oat arguments selecting backend, filter and flags of this profile.
+     */
+    List<String> getArguments() {
+        List<String> args = new ArrayList<String>();
+        args.add("--compiler-backend=" + backend);
+        if (compilerFilter != null) {
+            args.add("--compiler-filter=" + compilerFilter);
+        }
+        args.addAll(flags);
+        return args;
+    }
+
+    public static Dex2oatProfile forName(String name) {
+        for (Dex2oatProfile profile : values()) {
+            if (profile.name.equalsIgnoreCase(name)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("Unknown dex2oat profile " + name + ", expected one of " + getNames());
+    }
+
+    public static Dex2oatProfile getDefault(ModeVariant mode) {
+        return "Debug".equalsIgnoreCase(mode.getName()) ? FAST_DEBUG : BALANCED;
+    }
+
+    public static String getNames() {
+        StringBuilder names = new StringBuilder();
+        for (Dex2oatProfile profile : values()) {
+            if (names.length() > 0) {
+                names.append(" | ");
+            }
+            names.append(profile.name);
+        }
+        return names.toString();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -16,11 +16,17 @@ limitations under the License.
 
 package org.moe.executable_builder.task;
 
-import org.moe.common.exec.*;
+import org.moe.executable_builder.exec.Command;
+import org.moe.executable_builder.helpers.FileHasher;
+import org.moe.executable_builder.helpers.PathLock;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 public class IBTool extends BaseTask {
 
@@ -31,13 +37,17 @@ public class IBTool extends BaseTask {
     private String sourceSet = "";
     private String modulePath = "";
 
+    private File storyboardFile;
+
+    /*
+    ibtool may hang, it's killed when it doesn't finish in time
+     */
+    private static final long DEFAULT_TIMEOUT_SECONDS = 5;
+
     public IBTool(String sourceSet, String modulePath) {
         this.sourceSet = sourceSet;
         this.modulePath = modulePath;
-    }
-
-    @Override
-    void launch() {
+        setTimeout(DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
 
         StringBuilder mainUIStoryboardPath = new StringBuilder();
         mainUIStoryboardPath.append(modulePath);
@@ -50,10 +60,35 @@ public class IBTool extends BaseTask {
         mainUIStoryboardPath.append(File.separator);
         mainUIStoryboardPath.append(defaultStoryBoardName);
 
-        File storyboardFile = new File(mainUIStoryboardPath.toString());
+        storyboardFile = new File(mainUIStoryboardPath.toString());
+    }
+
+    /**
+     * Returns lock of the storyboard, kept in the build directory so the resources of the module stay as they are.
+     */
+    File getLockFile() {
+        byte[] path = storyboardFile.getAbsolutePath().getBytes(Charset.forName("UTF-8"));
+        return new File(modulePath, "build" + File.separator + MOE + File.separator + "locks" + File.separator +
+                FileHasher.toHex(FileHasher.newDigest().digest(path)) + ".lock");
+    }
+
+    @Override
+    public Collection<File> getInputFiles() {
+        // Missing storyboard is an input as well: the task has nothing to do until it appears
+        return Collections.singletonList(storyboardFile);
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        // Storyboard is updated in place
+        return storyboardFile.exists() ? Collections.singletonList(storyboardFile) : Collections.<File>emptyList();
+    }
+
+    @Override
+    void launch() {
         if(!storyboardFile.exists()) return;
 
-        SimpleExec exec = SimpleExec.getExec("ibtool");
+        Command exec = new Command("ibtool");
 
         ArrayList<String> args = exec.getArguments();
 
@@ -70,40 +105,18 @@ public class IBTool extends BaseTask {
 
 
         System.out.print("UITransformer IBTool check \n");
+
+        // Storyboard is rewritten in place, concurrent builds of the module must not interleave
+        PathLock lock;
         try {
-            final ExecRunner runner = exec.getRunner();
-            runner.setListener(new ExecRunnerBase.ExecRunnerListener() {
-                final String newLine = System.getProperty("line.separator");
-
-                @Override
-                public void stdout(String line) {
-                    System.out.print(line + newLine);
-                }
-
-                @Override
-                public void stderr(String line) {
-                    System.err.print(line + newLine);
-                }
-            });
-
-            int returnCode = runner.run(new IKillListener() {
-                @Override
-                public boolean needsKill() {
-                    try {
-                        Thread.sleep(5000);
-                    } catch (InterruptedException e) {
-                        System.out.println("IBTool thread has been finished ");
-                    }
-                    return true;
-                }
-            });
-            if (returnCode != 0) {
-                System.err.println("Failed " + exec.getExecPath());
-                System.exit(returnCode);
-            }
+            lock = PathLock.acquire(getLockFile());
         } catch (IOException e) {
-            System.err.println("IPA build failed: " + e.getMessage());
-            System.exit(1);
+            throw new BuildException("Failed to lock " + storyboardFile.getAbsolutePath() + ": " + e.getMessage(), e);
+        }
+        try {
+            run(exec, new ConsoleListener());
+        } finally {
+            lock.release();
         }
     }
 }
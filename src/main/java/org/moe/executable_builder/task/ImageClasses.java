@@ -0,0 +1,143 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task;
+
+import org.moe.executable_builder.helpers.ArtifactPromoter;
+import org.moe.executable_builder.helpers.DexTypeReader;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Generates an image-classes list for one app: classes of the SDK preloaded list which the
+ * app's dex files reference, plus classes of an optional list recorded at runtime.
+ * Framework classes the app never touches stay out of the boot image.
+ */
+public class ImageClasses extends BaseTask {
+
+    public static final String FILE_NAME = "image-classes.txt";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Collection<File> dexFiles;
+    private final File preloadedClasses;
+    private final File recordedClasses;
+    private final File outputFile;
+
+    /**
+     * @param dexFiles         app dex files or jars, without the framework
+     * @param preloadedClasses SDK preloaded classes list
+     * @param recordedClasses  classes recorded at runtime, always added to the list, may be null
+     * @param outputFile       generated list
+     */
+    public ImageClasses(Collection<File> dexFiles, File preloadedClasses, File recordedClasses, File outputFile) {
+        this.dexFiles = new ArrayList<File>(dexFiles);
+        this.preloadedClasses = preloadedClasses;
+        this.recordedClasses = recordedClasses;
+        this.outputFile = outputFile;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    @Override
+    public Collection<File> getInputFiles() {
+        ArrayList<File> files = new ArrayList<File>(dexFiles);
+        files.add(preloadedClasses);
+        if (recordedClasses != null) {
+            files.add(recordedClasses);
+        }
+        return files;
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        ArrayList<File> files = new ArrayList<File>();
+        files.add(outputFile);
+        return files;
+    }
+
+    @Override
+    void launch() {
+        try {
+            Set<String> referenced = new TreeSet<String>();
+            for (File dexFile : dexFiles) {
+                referenced.addAll(DexTypeReader.readClassNames(dexFile));
+            }
+
+            Set<String> imageClasses = new TreeSet<String>();
+            for (String className : readList(preloadedClasses)) {
+                if (referenced.contains(className)) {
+                    imageClasses.add(className);
+                }
+            }
+            int preloaded = imageClasses.size();
+            if (recordedClasses != null) {
+                imageClasses.addAll(readList(recordedClasses));
+            }
+
+            write(imageClasses);
+            System.out.println(getName() + ": " + preloaded + " preloaded and " +
+                    (imageClasses.size() - preloaded) + " recorded class(es) of " + referenced.size() + " referenced");
+        } catch (IOException e) {
+            // Make sure a stale list isn't used
+            outputFile.delete();
+            throw new BuildException("Image classes generation failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static Set<String> readList(File file) throws IOException {
+        Set<String> classes = new TreeSet<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    classes.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return classes;
+    }
+
+    private void write(Set<String> classes) throws IOException {
+        outputFile.getParentFile().mkdirs();
+        File temp = File.createTempFile(outputFile.getName(), ".tmp", outputFile.getParentFile());
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF_8));
+            try {
+                for (String className : classes) {
+                    writer.write(className);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+            ArtifactPromoter.replace(temp, outputFile);
+        } finally {
+            temp.delete();
+        }
+    }
+}
@@ -17,19 +17,22 @@ limitations under the License.
 package org.moe.executable_builder.task;
 
 
-import org.moe.common.exec.ExecRunner;
-import org.moe.common.exec.ExecRunnerBase;
-import org.moe.common.exec.SimpleExec;
 import org.moe.common.utils.FileUtil;
+import org.moe.executable_builder.exec.Command;
+import org.moe.executable_builder.helpers.ArtifactPromoter;
+import org.moe.executable_builder.helpers.AsyncLogSink;
+import org.moe.executable_builder.helpers.IpaWriter;
+import org.moe.executable_builder.task.cache.ArtifactCache;
 import org.apache.commons.io.FilenameUtils;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 public class IpaBuild extends BaseTask {
 
@@ -51,10 +54,20 @@ public class IpaBuild extends BaseTask {
 
     private File outputIpa;
 
+    private File publishedIpa;
+
     private String outPath;
 
     private File log;
 
+    private boolean compressLogs;
+
+    private boolean useXcrun;
+
+    private boolean reproducible;
+
+    private ArtifactCache cache;
+
     public IpaBuild(File appFile, String outPath, String provisioningProfile, String signingIdentity) throws IOException {
 
         inputApp = appFile;
@@ -68,7 +81,68 @@ public class IpaBuild extends BaseTask {
         this.signingIdentity = signingIdentity;
 
         log = new File(outPath, "ipaBuild-" + buildDate + ".log");
-        log.createNewFile();
+    }
+
+    /**
+     * Enables gzip compression of the log file.
+     */
+    public void setCompressLogs(boolean compressLogs) {
+        this.compressLogs = compressLogs;
+    }
+
+    /**
+     * Packages the app with xcrun PackageApplication instead of writing the ipa directly.
+     */
+    public void setUseXcrun(boolean useXcrun) {
+        this.useXcrun = useXcrun;
+    }
+
+    /**
+     * Writes the ipa with fixed entry times and logs to a fixed file name, so packaging the same app
+     * gives the same archive.
+     */
+    public void setReproducible(boolean reproducible) {
+        this.reproducible = reproducible;
+        log = new File(outPath, reproducible ? "ipaBuild.log" : "ipaBuild-" + buildDate + ".log");
+    }
+
+    /**
+     * Sets cache the ipa is looked up in before the app is packaged, null packages every time.
+     */
+    public void setCache(ArtifactCache cache) {
+        this.cache = cache;
+    }
+
+    private File getLogFile() {
+        return compressLogs ? new File(log.getPath() + ".gz") : log;
+    }
+
+    @Override
+    public String getConfiguration() {
+        return provisioningProfile + " " + signingIdentity + (useXcrun ? " xcrun" : "") +
+                (reproducible ? " reproducible" : "");
+    }
+
+    @Override
+    public Collection<File> getInputFiles() {
+        return Collections.singletonList(inputApp);
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        List<File> files = new ArrayList<File>();
+        files.add(outputIpa);
+        if (publishedIpa != null) {
+            files.add(publishedIpa);
+        }
+        return files;
+    }
+
+    /**
+     * Sets where a copy of the ipa is published once it's complete.
+     */
+    public void setPublishedIpa(File publishedIpa) {
+        this.publishedIpa = publishedIpa;
     }
 
     @Override
@@ -78,11 +152,64 @@ public class IpaBuild extends BaseTask {
             FileUtil.checkFile(inputApp);
             FileUtil.checkFile(new File(outPath));
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new BuildException("IPA build failed: " + e.getMessage(), e);
+        }
+
+        String cacheKey = null;
+        if (cache != null) {
+            try {
+                cacheKey = cache.computeKey(Collections.singletonList(getConfiguration()), getInputFiles());
+            } catch (IOException e) {
+                throw new BuildException("Failed to hash " + inputApp.getAbsolutePath() + ": " + e.getMessage(), e);
+            }
+        }
+
+        boolean restored = cacheKey != null && cache.restore(cacheKey, outputIpa);
+        if (cacheKey != null) {
+            getMetrics().recordCacheLookup(restored);
+        }
+        if (restored) {
+            System.out.println(getName() + ": restored from cache");
+            publishIpa();
+            return;
+        }
+
+        if (useXcrun) {
+            packageWithXcrun();
+        } else {
+            try {
+                IpaWriter writer = new IpaWriter();
+                if (reproducible) {
+                    writer.setTimestamp(IpaWriter.getReproducibleTimestamp());
+                }
+                writer.write(inputApp, outputIpa);
+            } catch (IOException e) {
+                throw new BuildException("IPA build failed: " + e.getMessage(), e);
+            }
+            System.out.println("Packaged " + outputIpa.getAbsolutePath());
+        }
+
+        if (cacheKey != null && outputIpa.isFile()) {
+            cache.store(cacheKey, outputIpa);
         }
 
-        SimpleExec exec = SimpleExec.getExec("xcrun");
-        
+        publishIpa();
+    }
+
+    private void publishIpa() {
+        if (publishedIpa == null) {
+            return;
+        }
+        try {
+            ArtifactPromoter.promote(outputIpa, publishedIpa);
+        } catch (IOException e) {
+            throw new BuildException("Failed to publish " + publishedIpa.getAbsolutePath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void packageWithXcrun() {
+        Command exec = new Command("xcrun").setMergeErrors(true);
+
         ArrayList<String> args = exec.getArguments();
 
         args.add("-sdk");
@@ -93,54 +220,26 @@ public class IpaBuild extends BaseTask {
         args.add("-o");
         args.add(outputIpa.getAbsolutePath());
 
-        FileOutputStream ostream = null;
+        AsyncLogSink logSink;
         try {
-            ostream = new FileOutputStream(log);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            logSink = new AsyncLogSink(getLogFile(), compressLogs);
+        } catch (IOException e) {
+            throw new BuildException("Failed to create " + getLogFile().getAbsolutePath() + ": " + e.getMessage(), e);
         }
 
-        final FileOutputStream finalOstream = ostream;
-        assert finalOstream != null;
-
-        // TODO: implement ExecRunnerWithLog class
+        // Log is closed even on failure, otherwise its tail would be lost
         try {
-            final ExecRunner runner = exec.getRunner();
-            runner.setListener(new ExecRunnerBase.ExecRunnerListener() {
-                final String newLine = System.getProperty("line.separator");
-
-                @Override
-                public void stdout(String line) {
-                    try {
-                        finalOstream.write((line + newLine).getBytes());
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-
-                @Override
-                public void stderr(String line) {
-                    try {
-                        finalOstream.write((line + newLine).getBytes());
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
-            int returnCode = runner.run(null);
-            if (returnCode != 0) {
-                System.err.println("Failed " + exec.getExecPath());
-                System.exit(returnCode);
-            }
-        } catch (IOException e) {
-            System.err.println("IPA build failed: " + e.getMessage());
-            System.exit(1);
+            run(exec, new LogSinkListener(logSink));
+        } finally {
+            closeLog(logSink);
         }
+    }
 
+    private static void closeLog(AsyncLogSink logSink) {
         try {
-            finalOstream.flush();
-            finalOstream.close();
-        } catch (IOException ignored) {
+            logSink.close();
+        } catch (IOException e) {
+            System.err.println("Failed to write " + logSink.getFile().getAbsolutePath() + ": " + e.getMessage());
         }
     }
 }
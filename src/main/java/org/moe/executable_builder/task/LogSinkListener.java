@@ -0,0 +1,42 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task;
+
+import org.moe.executable_builder.exec.OutputListener;
+import org.moe.executable_builder.helpers.AsyncLogSink;
+
+/**
+ * Forwards stdout and stderr of a child process to a log file without blocking the pipe reader.
+ */
+class LogSinkListener implements OutputListener {
+
+    private final AsyncLogSink sink;
+
+    LogSinkListener(AsyncLogSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void stdout(String line) {
+        sink.append(line);
+    }
+
+    @Override
+    public void stderr(String line) {
+        sink.append(line);
+    }
+}
@@ -0,0 +1,223 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task;
+
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Dry run of a build: which tasks would be launched, how long they are expected to take according
+ * to durations recorded by previous builds, and which chain of dependent tasks bounds the build time.
+ * <p>
+ * Up-to-date tasks cost nothing. Tasks without recorded duration are counted as instant and reported,
+ * estimates become complete after every task ran once.
+ */
+public class PlanReport {
+
+    public enum Status {
+        UP_TO_DATE("up-to-date"),
+        LAUNCH("launch");
+
+        private final String label;
+
+        Status(String label) {
+            this.label = label;
+        }
+    }
+
+    public static class Entry {
+
+        private final String taskName;
+
+        private final Status status;
+
+        private final long estimatedMillis;
+
+        private final long finishMillis;
+
+        Entry(String taskName, Status status, long estimatedMillis, long finishMillis) {
+            this.taskName = taskName;
+            this.status = status;
+            this.estimatedMillis = estimatedMillis;
+            this.finishMillis = finishMillis;
+        }
+
+        public String getTaskName() {
+            return taskName;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns recorded duration of the task, -1 if it never ran.
+         */
+        public long getEstimatedMillis() {
+            return estimatedMillis;
+        }
+
+        /**
+         * Returns earliest time the task can finish with unlimited workers.
+         */
+        public long getFinishMillis() {
+            return finishMillis;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    private final List<String> criticalPath = new ArrayList<String>();
+
+    private final int maxWorkers;
+
+    private long totalMillis;
+
+    private long criticalPathMillis;
+
+    private int unknownTasks;
+
+    private PlanReport(int maxWorkers) {
+        this.maxWorkers = maxWorkers;
+    }
+
+    /**
+     * Analyses tasks added to the task manager without launching any of them.
+     */
+    public static PlanReport analyse(TaskManager taskManager) {
+        PlanReport report = new PlanReport(taskManager.getMaxWorkers());
+
+        Map<BaseTask, Long> finish = new HashMap<BaseTask, Long>();
+        Map<BaseTask, BaseTask> slowestDependency = new HashMap<BaseTask, BaseTask>();
+        Set<BaseTask> upToDate = new HashSet<BaseTask>();
+        BaseTask last = null;
+
+        // Tasks come in topological order, dependencies are always analysed first
+        for (BaseTask task : taskManager.sortTasks()) {
+            TaskStateStore stateStore = taskManager.getStateStore(task);
+
+            long start = 0;
+            boolean dependenciesUpToDate = true;
+            for (BaseTask dependency : task.getDependencies()) {
+                if (finish.get(dependency) >= start) {
+                    start = finish.get(dependency);
+                    slowestDependency.put(task, dependency);
+                }
+                dependenciesUpToDate &= upToDate.contains(dependency);
+            }
+
+            // Same rule as the task manager: a task is up-to-date only if its dependencies are
+            long estimate = stateStore != null ? stateStore.getEstimatedMillis(task) : -1;
+            Status status = Status.LAUNCH;
+            long cost = Math.max(estimate, 0);
+            if (stateStore != null && dependenciesUpToDate && stateStore.isUpToDate(task)) {
+                status = Status.UP_TO_DATE;
+                upToDate.add(task);
+                cost = 0;
+            } else if (estimate < 0) {
+                report.unknownTasks++;
+            }
+
+            finish.put(task, start + cost);
+            report.totalMillis += cost;
+            report.entries.add(new Entry(task.getName(), status, estimate, start + cost));
+            if (last == null || finish.get(task) > finish.get(last)) {
+                last = task;
+            }
+        }
+
+        if (last != null) {
+            report.criticalPathMillis = finish.get(last);
+            for (BaseTask task = last; task != null; task = slowestDependency.get(task)) {
+                report.criticalPath.add(0, task.getName());
+            }
+        }
+        return report;
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    public List<String> getCriticalPath() {
+        return Collections.unmodifiableList(criticalPath);
+    }
+
+    public long getCriticalPathMillis() {
+        return criticalPathMillis;
+    }
+
+    /**
+     * Returns sum of estimated durations of all tasks which would be launched.
+     */
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * Returns speed-up over running tasks one by one with unlimited workers: total work divided by the critical path.
+     */
+    public double getParallelism() {
+        return criticalPathMillis > 0 ? (double) totalMillis / criticalPathMillis : 1;
+    }
+
+    /**
+     * Returns lower bound of the build time with the configured number of workers.
+     */
+    public long getMinimumMillis() {
+        return Math.max(criticalPathMillis, (totalMillis + maxWorkers - 1) / maxWorkers);
+    }
+
+    public void print(PrintStream out) {
+        int launched = 0;
+        int nameWidth = 4;
+        for (Entry entry : entries) {
+            nameWidth = Math.max(nameWidth, entry.getTaskName().length());
+            if (entry.getStatus() == Status.LAUNCH) {
+                launched++;
+            }
+        }
+
+        out.println("Build plan: " + entries.size() + " task(s), " + launched + " to launch, " +
+                (entries.size() - launched) + " up-to-date");
+        out.println(String.format("  %-" + nameWidth + "s  %-10s  %9s  %9s", "Task", "Status", "Estimate", "Finish"));
+        for (Entry entry : entries) {
+            out.println(String.format("  %-" + nameWidth + "s  %-10s  %9s  %9s", entry.getTaskName(), entry.getStatus().label,
+                    entry.getEstimatedMillis() < 0 ? "?" : formatSeconds(entry.getEstimatedMillis()),
+                    formatSeconds(entry.getFinishMillis())));
+        }
+
+        StringBuilder path = new StringBuilder();
+        for (String name : criticalPath) {
+            if (path.length() > 0) {
+                path.append(" -> ");
+            }
+            path.append(name);
+        }
+        out.println("Critical path: " + path + " (" + formatSeconds(criticalPathMillis) + ")");
+        out.println(String.format("Total work %s, parallelism %.2fx; with %d worker(s) the build takes at least %s (%.2fx)",
+                formatSeconds(totalMillis), getParallelism(), maxWorkers, formatSeconds(getMinimumMillis()),
+                getMinimumMillis() > 0 ? (double) totalMillis / getMinimumMillis() : 1.0));
+        if (unknownTasks > 0) {
+            out.println(unknownTasks + " task(s) never ran with task state enabled, their duration is unknown and counted as 0");
+        }
+    }
+
+    private static String formatSeconds(long millis) {
+        return String.format("%.1f s", millis / 1000.0);
+    }
+}
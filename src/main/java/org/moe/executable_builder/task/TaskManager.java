@@ -16,20 +16,325 @@ limitations under the License.
 
 package org.moe.executable_builder.task;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Runs tasks as a dependency graph: a task is launched as soon as all tasks it depends on
+ * have finished, independent tasks are launched concurrently on a bounded pool of workers.
+ */
 public class TaskManager {
 
     List<BaseTask> taskList = new ArrayList<BaseTask>();
 
-    public void addTask(BaseTask task) {
+    private final int maxWorkers;
+
+    private TaskStateStore stateStore;
+
+    private final Map<BaseTask, TaskStateStore> taskStateStores = new HashMap<BaseTask, TaskStateStore>();
+
+    private final Map<String, BaseTask> tasksByOutputs = new HashMap<String, BaseTask>();
+
+    public TaskManager() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public TaskManager(int maxWorkers) {
+        if (maxWorkers < 1) {
+            throw new IllegalArgumentException("Number of workers must be positive: " + maxWorkers);
+        }
+        this.maxWorkers = maxWorkers;
+    }
+
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+
+    /**
+     * Enables skipping of tasks which are up-to-date according to the given store.
+     */
+    public void setStateStore(TaskStateStore stateStore) {
+        this.stateStore = stateStore;
+    }
+
+    /**
+     * Sets store of a single task, when tasks of different modules are run together.
+     */
+    public void setStateStore(BaseTask task, TaskStateStore stateStore) {
+        taskStateStores.put(task, stateStore);
+    }
+
+    /**
+     * Registers a task.
+     * <p>
+     * If a task of the same type, with the same name, outputs and configuration is already registered,
+     * the new one is dropped and the registered task is returned, it has to be used instead of the new one.
+     * A task which writes the same outputs as a registered one but with a different configuration is
+     * ordered after it.
+     *
+     * @return the task which will be launched
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends BaseTask> T addTask(T task) {
+        if (taskList.contains(task)) {
+            return task;
+        }
+
+        if (!task.getOutputFiles().isEmpty()) {
+            StringBuilder outputs = new StringBuilder(task.getName());
+            for (File output : task.getOutputFiles()) {
+                outputs.append('|').append(output.getAbsolutePath());
+            }
+            String key = outputs.toString();
+
+            BaseTask registered = tasksByOutputs.get(key);
+            if (registered != null && registered.getClass() == task.getClass()
+                    && registered.getConfiguration().equals(task.getConfiguration())) {
+                for (BaseTask dependency : task.getDependencies()) {
+                    if (dependency != registered) {
+                        registered.dependsOn(dependency);
+                    }
+                }
+                return (T) registered;
+            }
+            if (registered != null) {
+                task.dependsOn(registered);
+            }
+            tasksByOutputs.put(key, task);
+        }
+
         taskList.add(task);
+        return task;
     }
 
+    /**
+     * Runs all tasks. The first failure cancels the remaining tasks and kills their child processes.
+     *
+     * @throws BuildException if a task failed
+     */
     public void runAll() {
-        for (BaseTask task : taskList) {
-            task.launch();
+        List<BaseTask> order = sortTasks();
+
+        if (maxWorkers == 1 || order.size() <= 1) {
+            try {
+                for (BaseTask task : order) {
+                    runTask(task);
+                }
+            } finally {
+                saveState();
+            }
+            return;
+        }
+
+        Map<BaseTask, Integer> pendingDependencies = new HashMap<BaseTask, Integer>();
+        Map<BaseTask, List<BaseTask>> dependents = new HashMap<BaseTask, List<BaseTask>>();
+        for (BaseTask task : order) {
+            pendingDependencies.put(task, task.getDependencies().size());
+            dependents.put(task, new ArrayList<BaseTask>());
+        }
+        for (BaseTask task : order) {
+            for (BaseTask dependency : task.getDependencies()) {
+                dependents.get(dependency).add(task);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxWorkers, order.size()), new WorkerFactory());
+        CompletionService<BaseTask> completionService = new ExecutorCompletionService<BaseTask>(executor);
+
+        Throwable failure = null;
+        int running = 0;
+        try {
+            for (BaseTask task : order) {
+                if (pendingDependencies.get(task) == 0) {
+                    completionService.submit(new TaskCall(task));
+                    running++;
+                }
+            }
+
+            while (running > 0) {
+                Future<BaseTask> future = completionService.take();
+                running--;
+
+                BaseTask finished;
+                try {
+                    finished = future.get();
+                } catch (ExecutionException e) {
+                    // Don't start new tasks and stop running ones, they fail as cancelled
+                    if (failure == null) {
+                        failure = e.getCause();
+                        cancelAll(order);
+                    }
+                    continue;
+                }
+
+                if (failure != null) {
+                    continue;
+                }
+                for (BaseTask dependent : dependents.get(finished)) {
+                    int pending = pendingDependencies.get(dependent) - 1;
+                    pendingDependencies.put(dependent, pending);
+                    if (pending == 0) {
+                        completionService.submit(new TaskCall(dependent));
+                        running++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelAll(order);
+            executor.shutdownNow();
+            throw new BuildException("Task execution was interrupted", e);
+        } finally {
+            executor.shutdown();
+            saveState();
+        }
+
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    private static void cancelAll(List<BaseTask> tasks) {
+        for (BaseTask task : tasks) {
+            task.cancel();
+        }
+    }
+
+    private void runTask(BaseTask task) {
+        TaskStateStore stateStore = getStateStore(task);
+        if (stateStore == null) {
+            task.execute();
+            return;
+        }
+
+        // Task is up-to-date only if everything it depends on is up-to-date as well
+        boolean upToDate = true;
+        for (BaseTask dependency : task.getDependencies()) {
+            if (dependency.getMetrics().getStatus() != TaskMetrics.Status.UP_TO_DATE) {
+                upToDate = false;
+                break;
+            }
+        }
+        if (upToDate && stateStore.isUpToDate(task)) {
+            task.getMetrics().markUpToDate();
+            System.out.println(task.getName() + ": up-to-date");
+            return;
+        }
+
+        stateStore.invalidate(task);
+        task.execute();
+        stateStore.update(task);
+        stateStore.recordDuration(task);
+    }
+
+    TaskStateStore getStateStore(BaseTask task) {
+        TaskStateStore store = taskStateStores.get(task);
+        return store != null ? store : stateStore;
+    }
+
+    private void saveState() {
+        Set<TaskStateStore> stores = new LinkedHashSet<TaskStateStore>(taskStateStores.values());
+        if (stateStore != null) {
+            stores.add(stateStore);
+        }
+        for (TaskStateStore store : stores) {
+            try {
+                store.save();
+            } catch (IOException e) {
+                System.err.println("Failed to save task state: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes metrics of all tasks as Chrome trace events (chrome://tracing, Perfetto).
+     */
+    public void writeTrace(File file) throws IOException {
+        BuildTrace.write(file, sortTasks());
+    }
+
+    /**
+     * Returns all registered tasks and their dependencies in topological order.
+     */
+    public List<BaseTask> sortTasks() {
+        // Collect dependencies which were not added explicitly
+        Set<BaseTask> tasks = new LinkedHashSet<BaseTask>();
+        LinkedList<BaseTask> queue = new LinkedList<BaseTask>(taskList);
+        while (!queue.isEmpty()) {
+            BaseTask task = queue.removeFirst();
+            if (tasks.add(task)) {
+                queue.addAll(task.getDependencies());
+            }
+        }
+
+        List<BaseTask> order = new ArrayList<BaseTask>(tasks.size());
+        Set<BaseTask> visited = new LinkedHashSet<BaseTask>();
+        Set<BaseTask> inProgress = new LinkedHashSet<BaseTask>();
+        for (BaseTask task : tasks) {
+            visit(task, visited, inProgress, order);
+        }
+        return order;
+    }
+
+    private void visit(BaseTask task, Set<BaseTask> visited, Set<BaseTask> inProgress, List<BaseTask> order) {
+        if (visited.contains(task)) {
+            return;
+        }
+        if (!inProgress.add(task)) {
+            throw new IllegalStateException("Circular task dependency: " + inProgress + " -> " + task);
+        }
+        for (BaseTask dependency : task.getDependencies()) {
+            visit(dependency, visited, inProgress, order);
+        }
+        inProgress.remove(task);
+        visited.add(task);
+        order.add(task);
+    }
+
+    private class TaskCall implements Callable<BaseTask> {
+
+        private final BaseTask task;
+
+        TaskCall(BaseTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public BaseTask call() throws Exception {
+            runTask(task);
+            return task;
+        }
+    }
+
+    private static class WorkerFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "moe-task-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 }
@@ -0,0 +1,172 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task;
+
+import org.moe.executable_builder.helpers.ProcessStats;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Timings of a single task run and total sizes of its inputs and outputs. The sizes describe the files
+ * of the task, not I/O it performed. CPU time isn't recorded: the work is done by child processes and
+ * Java doesn't expose their resource usage, the builder thread itself mostly waits.
+ */
+public class TaskMetrics {
+
+    public enum Status {
+        NOT_RUN, UP_TO_DATE, SUCCESS, FAILED, CANCELLED
+    }
+
+    /**
+     * Result of looking up outputs of a launched task in an artifact cache.
+     */
+    public enum CacheResult {
+        NONE, HIT, MISS
+    }
+
+    private final BaseTask task;
+
+    private Status status = Status.NOT_RUN;
+
+    private String threadName;
+
+    private long startTimeMillis;
+
+    private long startNanos;
+
+    private long wallTimeNanos = -1;
+
+    private long inputBytes = -1;
+
+    private long outputBytes = -1;
+
+    private Integer exitCode;
+
+    private CacheResult cacheResult = CacheResult.NONE;
+
+    private boolean reused;
+
+    TaskMetrics(BaseTask task) {
+        this.task = task;
+    }
+
+    synchronized void start() {
+        threadName = Thread.currentThread().getName();
+        startTimeMillis = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        inputBytes = sizeOf(task.getInputFiles());
+    }
+
+    synchronized void markUpToDate() {
+        threadName = Thread.currentThread().getName();
+        startTimeMillis = System.currentTimeMillis();
+        wallTimeNanos = 0;
+        status = Status.UP_TO_DATE;
+    }
+
+    synchronized void finish(Status status) {
+        wallTimeNanos = System.nanoTime() - startNanos;
+        this.status = status;
+        outputBytes = sizeOf(task.getOutputFiles());
+    }
+
+    private static long sizeOf(Iterable<File> files) {
+        long size = 0;
+        for (File file : files) {
+            size += ProcessStats.sizeOf(file);
+        }
+        return size;
+    }
+
+    /**
+     * Records whether outputs of the task were restored from a cache, a hit means the tool wasn't run.
+     */
+    synchronized void recordCacheLookup(boolean hit) {
+        cacheResult = hit ? CacheResult.HIT : CacheResult.MISS;
+        reused |= hit;
+    }
+
+    /**
+     * Records that the task took outputs of an earlier build instead of running its tool.
+     */
+    synchronized void markReused() {
+        reused = true;
+    }
+
+    /**
+     * Records exit code of the child process launched by the task.
+     */
+    public synchronized void setExitCode(int exitCode) {
+        this.exitCode = exitCode;
+    }
+
+    public String getTaskName() {
+        return task.getName();
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    public synchronized String getThreadName() {
+        return threadName;
+    }
+
+    public synchronized long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    public synchronized long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    /**
+     * Returns total size of the input files when the task started, -1 if it didn't run.
+     */
+    public synchronized long getInputBytes() {
+        return inputBytes;
+    }
+
+    /**
+     * Returns total size of the output files when the task finished, -1 if it didn't run.
+     */
+    public synchronized long getOutputBytes() {
+        return outputBytes;
+    }
+
+    public synchronized Integer getExitCode() {
+        return exitCode;
+    }
+
+    public synchronized CacheResult getCacheResult() {
+        return cacheResult;
+    }
+
+    /**
+     * Returns whether the task was launched but restored or reused its outputs, so its timings
+     * don't tell how long the tool takes.
+     */
+    public synchronized boolean isReused() {
+        return reused;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%s: %s in %.3f s", getTaskName(), status, wallTimeNanos / 1e9);
+    }
+}
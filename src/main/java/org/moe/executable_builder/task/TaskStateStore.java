@@ -0,0 +1,271 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task;
+
+import org.moe.executable_builder.helpers.ArtifactPromoter;
+import org.moe.executable_builder.helpers.FileHasher;
+import org.moe.executable_builder.helpers.PathLock;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers fingerprints of inputs and outputs of tasks which finished successfully, so that
+ * tasks whose inputs, outputs and configuration haven't changed since then can be skipped.
+ * Durations of launched tasks are remembered as well, to estimate how long the next build takes.
+ * <p>
+ * Fingerprints are built from paths, sizes and modification times of files, the content is not read.
+ */
+public class TaskStateStore {
+
+    public static final String FILE_NAME = "task-state.properties";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String DURATION_PREFIX = "duration|";
+
+    /*
+    Weight of the latest duration in the moving average, older builds fade out over a few runs
+     */
+    private static final double DURATION_WEIGHT = 0.3;
+
+    private final File file;
+
+    private final Properties state = new Properties();
+
+    /*
+    Entries changed by this build, null value marks removed entry
+     */
+    private final Map<String, String> changes = new HashMap<String, String>();
+
+    private TaskStateStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns default location of the state file of a module.
+     */
+    public static File getDefaultFile(String modulePath) {
+        return new File(modulePath, "build" + File.separator + BaseTask.MOE + File.separator + FILE_NAME);
+    }
+
+    public static TaskStateStore load(File file) {
+        TaskStateStore store = new TaskStateStore(file);
+        if (file.isFile()) {
+            InputStream input = null;
+            try {
+                input = new FileInputStream(file);
+                store.state.load(input);
+            } catch (IOException e) {
+                System.err.println("Failed to read task state, all tasks will be launched: " + e.getMessage());
+                store.state.clear();
+            } finally {
+                close(input);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Checks whether the task was already launched with the same inputs, outputs and configuration.
+     */
+    public boolean isUpToDate(BaseTask task) {
+        if (task.getInputFiles().isEmpty()) {
+            return false;
+        }
+        for (File output : task.getOutputFiles()) {
+            if (!output.exists()) {
+                return false;
+            }
+        }
+
+        String recorded;
+        synchronized (state) {
+            recorded = state.getProperty(getKey(task));
+        }
+        return recorded != null && recorded.equals(computeFingerprint(task));
+    }
+
+    /**
+     * Records current state of a task which finished successfully.
+     */
+    public void update(BaseTask task) {
+        if (task.getInputFiles().isEmpty()) {
+            return;
+        }
+        String fingerprint = computeFingerprint(task);
+        synchronized (state) {
+            state.setProperty(getKey(task), fingerprint);
+            changes.put(getKey(task), fingerprint);
+        }
+    }
+
+    /**
+     * Adds wall time of a task which finished successfully to its duration history. Launches which
+     * restored or reused their outputs are left out, the estimate is how long the tool takes.
+     */
+    public void recordDuration(BaseTask task) {
+        long wallTimeNanos = task.getMetrics().getWallTimeNanos();
+        if (wallTimeNanos < 0 || task.getMetrics().isReused()) {
+            return;
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(wallTimeNanos);
+        String key = DURATION_PREFIX + getKey(task);
+        synchronized (state) {
+            long previous = parseMillis(state.getProperty(key));
+            long average = previous < 0 ? millis : Math.round(previous * (1 - DURATION_WEIGHT) + millis * DURATION_WEIGHT);
+            state.setProperty(key, Long.toString(average));
+            changes.put(key, Long.toString(average));
+        }
+    }
+
+    /**
+     * Returns average duration of recent launches of the task in milliseconds, -1 if it was never launched.
+     */
+    public long getEstimatedMillis(BaseTask task) {
+        synchronized (state) {
+            return parseMillis(state.getProperty(DURATION_PREFIX + getKey(task)));
+        }
+    }
+
+    private static long parseMillis(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Forgets state of a task, it will be launched next time.
+     */
+    public void invalidate(BaseTask task) {
+        synchronized (state) {
+            state.remove(getKey(task));
+            changes.put(getKey(task), null);
+        }
+    }
+
+    /**
+     * Writes changes made by this build. Entries of other builds of the module which saved
+     * in the meantime are kept.
+     */
+    public void save() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create " + parent.getAbsolutePath());
+        }
+
+        PathLock lock = PathLock.acquire(new File(parent, file.getName() + ".lock"));
+        try {
+            Properties merged = load(file).state;
+            synchronized (state) {
+                for (Map.Entry<String, String> change : changes.entrySet()) {
+                    if (change.getValue() != null) {
+                        merged.setProperty(change.getKey(), change.getValue());
+                    } else {
+                        merged.remove(change.getKey());
+                    }
+                }
+            }
+
+            File temp = File.createTempFile(file.getName(), ".tmp", parent);
+            try {
+                OutputStream output = new FileOutputStream(temp);
+                try {
+                    merged.store(output, "MOE executable builder task state");
+                } finally {
+                    output.close();
+                }
+                ArtifactPromoter.replace(temp, file);
+            } finally {
+                temp.delete();
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    /*
+    Same task may be built into different outputs (Debug and Release for example), so outputs are part of the key
+     */
+    private static String getKey(BaseTask task) {
+        StringBuilder key = new StringBuilder(task.getName());
+        for (File output : task.getOutputFiles()) {
+            key.append('|').append(output.getAbsolutePath());
+        }
+        return key.toString();
+    }
+
+    static String computeFingerprint(BaseTask task) {
+        MessageDigest digest = FileHasher.newDigest();
+        digest.update(task.getConfiguration().getBytes(UTF_8));
+        digest.update((byte) 0);
+        update(digest, task.getInputFiles());
+        digest.update((byte) 1);
+        update(digest, task.getOutputFiles());
+        return FileHasher.toHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, Collection<File> files) {
+        for (File file : files) {
+            update(digest, file);
+        }
+    }
+
+    private static void update(MessageDigest digest, File file) {
+        digest.update(file.getAbsolutePath().getBytes(UTF_8));
+        if (file.isDirectory()) {
+            digest.update((byte) 'd');
+            String[] names = file.list();
+            if (names != null) {
+                Arrays.sort(names);
+                for (String name : names) {
+                    update(digest, new File(file, name));
+                }
+            }
+        } else if (file.exists()) {
+            digest.update(("f" + file.length() + ":" + file.lastModified()).getBytes(UTF_8));
+        } else {
+            digest.update((byte) '-');
+        }
+    }
+
+    private static void close(InputStream input) {
+        if (input != null) {
+            try {
+                input.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
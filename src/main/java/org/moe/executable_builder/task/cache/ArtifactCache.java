@@ -0,0 +1,252 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task.cache;
+
+import org.apache.commons.io.FileUtils;
+import org.moe.executable_builder.helpers.ArtifactPromoter;
+import org.moe.executable_builder.helpers.FileHasher;
+import org.moe.executable_builder.task.BaseTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of task outputs, dex2oat results and packaged apps. Entries are keyed by a hash of
+ * the task configuration and the content of every file it reads. Backends are searched in
+ * order, usually a local directory first and a shared store after it; an entry found in a later
+ * backend is copied to the earlier ones. Failing backends only cost cache misses.
+ * <p>
+ * App bundles are stored as tree archives, other outputs as they are.
+ */
+public class ArtifactCache {
+
+    public static final long DEFAULT_MAX_SIZE = 2048L * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String TREE_SUFFIX = ".tree";
+    private static final String BUNDLE_SUFFIX = ".app";
+
+    private final List<CacheBackend> backends;
+
+    private final FileHasher hasher = new FileHasher();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong remoteHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public ArtifactCache(List<CacheBackend> backends) {
+        this.backends = new ArrayList<CacheBackend>(backends);
+    }
+
+    public ArtifactCache(File root, long maxSize) {
+        this(Collections.<CacheBackend>singletonList(new LocalCacheBackend(root, maxSize)));
+    }
+
+    public static File getDefaultDirectory() {
+        return new File(System.getProperty("user.home"), "." + BaseTask.MOE + File.separator + "cache" + File.separator + "dex2oat");
+    }
+
+    /**
+     * Creates backend of a shared cache: an HTTP store for http(s) URLs, a shared directory otherwise.
+     */
+    public static CacheBackend createSharedBackend(String location) {
+        if (location.startsWith("http://") || location.startsWith("https://")) {
+            return new HttpCacheBackend(location);
+        }
+        return new DirectoryCacheBackend(new File(location));
+    }
+
+    /**
+     * Computes cache key for a tool invocation.
+     *
+     * @param arguments tool arguments or other configuration of the task
+     * @param inputs    all files and directories read by the tool, including the tool itself
+     */
+    public String computeKey(List<String> arguments, Collection<File> inputs) throws IOException {
+        MessageDigest digest = FileHasher.newDigest();
+        for (String argument : arguments) {
+            digest.update(argument.getBytes(UTF_8));
+            digest.update((byte) 0);
+        }
+        for (File input : inputs) {
+            update(digest, input);
+        }
+        return FileHasher.toHex(digest.digest());
+    }
+
+    private void update(MessageDigest digest, File file) throws IOException {
+        digest.update(file.getAbsolutePath().getBytes(UTF_8));
+        digest.update((byte) 0);
+        if (file.isDirectory()) {
+            digest.update((byte) 'd');
+            String[] names = file.list();
+            if (names != null) {
+                Arrays.sort(names);
+                for (String name : names) {
+                    update(digest, new File(file, name));
+                }
+            }
+        } else if (file.exists()) {
+            digest.update(hasher.hash(file).getBytes(UTF_8));
+        } else {
+            digest.update((byte) '-');
+        }
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Restores cached outputs for the given key, outputs are replaced atomically.
+     *
+     * @return true when all outputs were restored, false on cache miss
+     */
+    public boolean restore(String key, File... outputs) {
+        for (int i = 0; i < backends.size(); i++) {
+            CacheBackend backend = backends.get(i);
+            List<File> blobs = new ArrayList<File>();
+            try {
+                if (fetch(backend, key, outputs, blobs)) {
+                    // Earlier backends are faster, next lookups shouldn't go further
+                    for (int j = 0; j < i; j++) {
+                        publish(backends.get(j), key, outputs, blobs);
+                    }
+                    install(outputs, blobs);
+                    hits.incrementAndGet();
+                    if (i > 0) {
+                        remoteHits.incrementAndGet();
+                    }
+                    return true;
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to restore outputs from cache " + backend + ": " + e.getMessage());
+            } finally {
+                for (File blob : blobs) {
+                    FileUtils.deleteQuietly(blob);
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Stores outputs under the given key in all backends.
+     */
+    public void store(String key, File... outputs) {
+        List<File> blobs = new ArrayList<File>();
+        List<File> archives = new ArrayList<File>();
+        try {
+            for (File output : outputs) {
+                if (isTree(output)) {
+                    File archive = newTempFile(output);
+                    archives.add(archive);
+                    TreeArchive.write(output, archive);
+                    blobs.add(archive);
+                } else {
+                    blobs.add(output);
+                }
+            }
+            for (CacheBackend backend : backends) {
+                try {
+                    publish(backend, key, outputs, blobs);
+                } catch (IOException e) {
+                    System.err.println("Failed to store outputs in cache " + backend + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to store outputs in cache: " + e.getMessage());
+        } finally {
+            for (File archive : archives) {
+                FileUtils.deleteQuietly(archive);
+            }
+        }
+    }
+
+    /**
+     * Downloads blobs of all outputs, none are used unless all of them exist.
+     */
+    private static boolean fetch(CacheBackend backend, String key, File[] outputs, List<File> blobs) throws IOException {
+        for (File output : outputs) {
+            File blob = newTempFile(output);
+            blobs.add(blob);
+            if (!backend.get(key, getBlobName(output), blob)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void publish(CacheBackend backend, String key, File[] outputs, List<File> blobs) throws IOException {
+        for (int i = 0; i < outputs.length; i++) {
+            backend.put(key, getBlobName(outputs[i]), blobs.get(i));
+        }
+    }
+
+    private static void install(File[] outputs, List<File> blobs) throws IOException {
+        for (int i = 0; i < outputs.length; i++) {
+            File output = outputs[i];
+            if (isTree(output)) {
+                File temp = newTempFile(output);
+                try {
+                    TreeArchive.read(blobs.get(i), temp);
+                    ArtifactPromoter.promote(temp, output);
+                } finally {
+                    FileUtils.deleteQuietly(temp);
+                }
+            } else {
+                ArtifactPromoter.replace(blobs.get(i), output);
+            }
+        }
+    }
+
+    /*
+    Bundles are recognised by name, restored outputs don't exist yet
+     */
+    private static boolean isTree(File output) {
+        return output.getName().endsWith(BUNDLE_SUFFIX);
+    }
+
+    private static String getBlobName(File output) {
+        return output.getName() + (isTree(output) ? TREE_SUFFIX : "");
+    }
+
+    private static File newTempFile(File output) {
+        File parent = output.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        return new File(parent, "." + output.getName() + TEMP_SUFFIX + System.nanoTime());
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Artifact cache " + backends + ": " + hits.get() + " hit(s) (" + remoteHits.get() + " shared), " +
+                misses.get() + " miss(es)";
+    }
+}
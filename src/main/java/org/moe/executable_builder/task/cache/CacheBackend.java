@@ -0,0 +1,40 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task.cache;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Storage of cached build artifacts. Entries are addressed by a key computed from all inputs
+ * of the task, an entry holds one or more named blobs. Blobs are never modified once published,
+ * equal keys always describe equal content.
+ */
+public interface CacheBackend {
+
+    /**
+     * Copies the blob to the target file.
+     *
+     * @return false if the backend doesn't have the blob
+     */
+    boolean get(String key, String name, File target) throws IOException;
+
+    /**
+     * Publishes the file as a blob of the entry, readers never see it partially written.
+     */
+    void put(String key, String name, File source) throws IOException;
+}
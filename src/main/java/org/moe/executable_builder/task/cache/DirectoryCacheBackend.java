@@ -0,0 +1,90 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task.cache;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Cache in a directory shared by several machines, e.g. over NFS. Blobs are written to
+ * a temporary file unique to the writer and renamed into place, renames are atomic even on
+ * network file systems, so no locks are needed. When two agents publish the same entry
+ * the last rename wins, both blobs have the same content.
+ * <p>
+ * Layout: &lt;root&gt;/&lt;key&gt;/&lt;name&gt;
+ */
+public class DirectoryCacheBackend implements CacheBackend {
+
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String WRITER_ID = getHostName() + "-" + System.nanoTime();
+
+    final File root;
+
+    public DirectoryCacheBackend(File root) {
+        this.root = root;
+    }
+
+    @Override
+    public boolean get(String key, String name, File target) throws IOException {
+        File blob = new File(getEntry(key), name);
+        if (!blob.isFile()) {
+            return false;
+        }
+        FileUtils.copyFile(blob, target);
+        return true;
+    }
+
+    @Override
+    public void put(String key, String name, File source) throws IOException {
+        File entry = getEntry(key);
+        if (!entry.isDirectory() && !entry.mkdirs() && !entry.isDirectory()) {
+            throw new IOException("Failed to create " + entry.getAbsolutePath());
+        }
+
+        File temp = new File(entry, "." + name + TEMP_SUFFIX + "-" + WRITER_ID + "-" + Thread.currentThread().getId());
+        try {
+            FileUtils.copyFile(source, temp);
+            Files.move(temp.toPath(), new File(entry, name).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            FileUtils.deleteQuietly(temp);
+        }
+    }
+
+    File getEntry(String key) {
+        return new File(root, key);
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "localhost";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return root.getAbsolutePath();
+    }
+}
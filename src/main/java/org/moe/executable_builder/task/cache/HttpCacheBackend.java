@@ -0,0 +1,116 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task.cache;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.URL;
+
+/**
+ * Cache on a content-addressed HTTP store: blobs are read with GET and published with PUT
+ * at &lt;base url&gt;/&lt;key&gt;/&lt;name&gt;. Any server storing PUT bodies and serving them back
+ * works, e.g. nginx with WebDAV enabled. The server is expected to publish uploads atomically.
+ */
+public class HttpCacheBackend implements CacheBackend {
+
+    private static final int TIMEOUT_MILLIS = 30 * 1000;
+
+    private final String baseUrl;
+
+    public HttpCacheBackend(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    @Override
+    public boolean get(String key, String name, File target) throws IOException {
+        HttpURLConnection connection = open(key, name);
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                return false;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("GET " + connection.getURL() + " returned " + status);
+            }
+
+            long length = connection.getContentLengthLong();
+            InputStream input = connection.getInputStream();
+            try {
+                FileUtils.copyInputStreamToFile(input, target);
+            } finally {
+                input.close();
+            }
+            // A dropped connection may look like the end of the body, never use a truncated blob
+            if (length >= 0 && target.length() != length) {
+                throw new IOException("GET " + connection.getURL() + " returned " + target.length() + " of " + length + " bytes");
+            }
+            return true;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void put(String key, String name, File source) throws IOException {
+        // Unlike GET, streamed uploads aren't retried when the server closed an idle keep-alive connection
+        try {
+            upload(key, name, source);
+        } catch (SocketException e) {
+            upload(key, name, source);
+        }
+    }
+
+    private void upload(String key, String name, File source) throws IOException {
+        HttpURLConnection connection = open(key, name);
+        try {
+            connection.setRequestMethod("PUT");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            connection.setFixedLengthStreamingMode(source.length());
+
+            OutputStream output = connection.getOutputStream();
+            try {
+                FileUtils.copyFile(source, output);
+            } finally {
+                output.close();
+            }
+
+            int status = connection.getResponseCode();
+            if (status / 100 != 2) {
+                throw new IOException("PUT " + connection.getURL() + " returned " + status);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(String key, String name) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "/" + key + "/" + name).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    @Override
+    public String toString() {
+        return baseUrl;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task.cache;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Cache in a local directory of limited size. Entries are evicted in least recently used
+ * order when the total size of the cache exceeds its limit.
+ */
+public class LocalCacheBackend extends DirectoryCacheBackend {
+
+    private final long maxSize;
+
+    public LocalCacheBackend(File root, long maxSize) {
+        super(root);
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public boolean get(String key, String name, File target) throws IOException {
+        if (!super.get(key, name, target)) {
+            return false;
+        }
+        // Mark entry as recently used
+        getEntry(key).setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    @Override
+    public void put(String key, String name, File source) throws IOException {
+        super.put(key, name, source);
+        synchronized (this) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        File[] entries = root.listFiles();
+        if (entries == null) {
+            return;
+        }
+
+        List<File> directories = new ArrayList<File>();
+        long totalSize = 0;
+        for (File entry : entries) {
+            if (entry.isDirectory()) {
+                directories.add(entry);
+                totalSize += FileUtils.sizeOfDirectory(entry);
+            }
+        }
+
+        Collections.sort(directories, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+
+        for (File entry : directories) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            long size = FileUtils.sizeOfDirectory(entry);
+            if (FileUtils.deleteQuietly(entry)) {
+                totalSize -= size;
+            }
+        }
+    }
+}
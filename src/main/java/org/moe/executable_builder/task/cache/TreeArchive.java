@@ -0,0 +1,204 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task.cache;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Packs a directory tree, e.g. an .app bundle, into a single blob. Unix permissions and
+ * symbolic links are kept, so restored bundles stay executable and signed.
+ * <p>
+ * Format, gzip compressed: magic, then records of type, relative path, mode and
+ * content (size and bytes of files, target of links), ended by a zero type.
+ */
+class TreeArchive {
+
+    private static final String MAGIC = "MOETREE1";
+
+    private static final byte END = 0;
+    private static final byte DIRECTORY = 'd';
+    private static final byte FILE = 'f';
+    private static final byte LINK = 'l';
+
+    private static final PosixFilePermission[] PERMISSIONS = PosixFilePermission.values();
+
+    static void write(final File directory, File archive) throws IOException {
+        final Path root = directory.toPath();
+        final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(archive), 64 * 1024)));
+        try {
+            output.writeUTF(MAGIC);
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (!dir.equals(root)) {
+                        writeHeader(output, DIRECTORY, root.relativize(dir), mode(dir, 0755));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isSymbolicLink()) {
+                        writeHeader(output, LINK, root.relativize(file), 0777);
+                        output.writeUTF(Files.readSymbolicLink(file).toString());
+                    } else {
+                        writeHeader(output, FILE, root.relativize(file), mode(file, 0644));
+                        output.writeLong(attrs.size());
+                        long copied = Files.copy(file, output);
+                        if (copied != attrs.size()) {
+                            throw new IOException(file + " changed while it was archived");
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            output.writeByte(END);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Extracts the archive into a new directory.
+     * <p>
+     * Blobs may come from other machines, so nothing is written outside of the directory: paths must stay
+     * inside it, links must point inside it and are created only after all files, so no write goes through one.
+     */
+    static void read(File archive, File directory) throws IOException {
+        Path root = directory.toPath().toAbsolutePath().normalize();
+        DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(archive), 64 * 1024)));
+        try {
+            if (!MAGIC.equals(input.readUTF())) {
+                throw new IOException(archive + " is not a tree archive");
+            }
+            Files.createDirectories(root);
+            Path realRoot = root.toRealPath();
+
+            Map<Path, Path> links = new LinkedHashMap<Path, Path>();
+            byte type;
+            while ((type = input.readByte()) != END) {
+                Path path = root.resolve(input.readUTF()).normalize();
+                if (!path.startsWith(root) || path.equals(root)) {
+                    throw new IOException("Invalid path " + path + " in " + archive);
+                }
+                int mode = input.readShort() & 0xFFFF;
+
+                switch (type) {
+                    case DIRECTORY:
+                        checkParent(realRoot, path, archive);
+                        Files.createDirectories(path);
+                        setMode(path, mode);
+                        break;
+                    case LINK:
+                        Path target = Paths.get(input.readUTF());
+                        if (target.isAbsolute() || !path.getParent().resolve(target).normalize().startsWith(root)) {
+                            throw new IOException("Invalid link " + path + " -> " + target + " in " + archive);
+                        }
+                        links.put(path, target);
+                        break;
+                    case FILE:
+                        checkParent(realRoot, path, archive);
+                        copy(input, path, input.readLong());
+                        setMode(path, mode);
+                        break;
+                    default:
+                        throw new IOException("Corrupted tree archive " + archive);
+                }
+            }
+
+            for (Map.Entry<Path, Path> link : links.entrySet()) {
+                checkParent(realRoot, link.getKey(), archive);
+                Files.createSymbolicLink(link.getKey(), link.getValue());
+            }
+            // Targets were checked by name, a chain of links may still resolve elsewhere
+            for (Path link : links.keySet()) {
+                if (Files.exists(link) && !link.toRealPath().startsWith(realRoot)) {
+                    throw new IOException("Invalid link " + link + " in " + archive);
+                }
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void checkParent(Path realRoot, Path path, File archive) throws IOException {
+        Path parent = path.getParent();
+        Files.createDirectories(parent);
+        if (!parent.toRealPath().startsWith(realRoot) || Files.isSymbolicLink(path)) {
+            throw new IOException("Invalid path " + path + " in " + archive);
+        }
+    }
+
+    private static void writeHeader(DataOutputStream output, byte type, Path path, int mode) throws IOException {
+        output.writeByte(type);
+        output.writeUTF(path.toString().replace(File.separatorChar, '/'));
+        output.writeShort(mode);
+    }
+
+    private static void copy(DataInputStream input, Path path, long size) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        OutputStream output = Files.newOutputStream(path);
+        try {
+            while (size > 0) {
+                int read = input.read(buffer, 0, (int) Math.min(buffer.length, size));
+                if (read < 0) {
+                    throw new EOFException("Truncated tree archive");
+                }
+                output.write(buffer, 0, read);
+                size -= read;
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    private static int mode(Path path, int fallback) throws IOException {
+        try {
+            int mode = 0;
+            for (PosixFilePermission permission : Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS)) {
+                mode |= 1 << (8 - permission.ordinal());
+            }
+            return mode;
+        } catch (UnsupportedOperationException e) {
+            return fallback;
+        }
+    }
+
+    private static void setMode(Path path, int mode) throws IOException {
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        for (PosixFilePermission permission : PERMISSIONS) {
+            if ((mode & (1 << (8 - permission.ordinal()))) != 0) {
+                permissions.add(permission);
+            }
+        }
+        try {
+            Files.setPosixFilePermissions(path, permissions);
+        } catch (UnsupportedOperationException ignored) {
+        }
+    }
+}
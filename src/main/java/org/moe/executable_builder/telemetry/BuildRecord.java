@@ -0,0 +1,175 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.telemetry;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Telemetry of one build: outcome, cache efficiency and measurements of every task.
+ */
+public class BuildRecord {
+
+    /**
+     * Measurements of one task, times in milliseconds and sizes in bytes, -1 where unknown.
+     */
+    public static class TaskSample {
+
+        private final String name;
+
+        private final String status;
+
+        private final long wallMillis;
+
+        private final long inputBytes;
+
+        private final long outputBytes;
+
+        private final boolean reused;
+
+        public TaskSample(String name, String status, boolean reused, long wallMillis, long inputBytes,
+                          long outputBytes) {
+            this.name = name;
+            this.status = status;
+            this.reused = reused;
+            this.wallMillis = wallMillis;
+            this.inputBytes = inputBytes;
+            this.outputBytes = outputBytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns name of the task status, e.g. SUCCESS or UP_TO_DATE.
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns whether the task restored its outputs from a cache or reused them instead of running its tool.
+         */
+        public boolean isReused() {
+            return reused;
+        }
+
+        public long getWallMillis() {
+            return wallMillis;
+        }
+
+        /**
+         * Returns total size of the input files, not the number of bytes the task read.
+         */
+        public long getInputBytes() {
+            return inputBytes;
+        }
+
+        public long getOutputBytes() {
+            return outputBytes;
+        }
+    }
+
+    private final long timeMillis;
+
+    private final int exitCode;
+
+    private final long cacheHits;
+
+    private final long cacheMisses;
+
+    private final List<TaskSample> tasks;
+
+    public BuildRecord(long timeMillis, int exitCode, long cacheHits, long cacheMisses, List<TaskSample> tasks) {
+        this.timeMillis = timeMillis;
+        this.exitCode = exitCode;
+        this.cacheHits = cacheHits;
+        this.cacheMisses = cacheMisses;
+        this.tasks = Collections.unmodifiableList(new ArrayList<TaskSample>(tasks));
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    public List<TaskSample> getTasks() {
+        return tasks;
+    }
+
+    void write(DataOutputStream output, int version) throws IOException {
+        output.writeLong(timeMillis);
+        output.writeInt(exitCode);
+        output.writeLong(cacheHits);
+        output.writeLong(cacheMisses);
+        output.writeShort(tasks.size());
+        for (TaskSample task : tasks) {
+            output.writeUTF(task.name);
+            output.writeUTF(task.status);
+            if (version >= 2) {
+                output.writeBoolean(task.reused);
+            }
+            output.writeLong(task.wallMillis);
+            if (version < 3) {
+                // CPU time of the builder thread, no longer recorded
+                output.writeLong(-1);
+            }
+            output.writeLong(task.inputBytes);
+            output.writeLong(task.outputBytes);
+        }
+    }
+
+    /**
+     * Reads a record of the given format version, version 1 has no reuse flags and versions before 3
+     * have CPU times, which are skipped.
+     */
+    static BuildRecord read(DataInputStream input, int version) throws IOException {
+        long timeMillis = input.readLong();
+        int exitCode = input.readInt();
+        long cacheHits = input.readLong();
+        long cacheMisses = input.readLong();
+        int count = input.readUnsignedShort();
+        List<TaskSample> tasks = new ArrayList<TaskSample>(count);
+        for (int i = 0; i < count; i++) {
+            String name = input.readUTF();
+            String status = input.readUTF();
+            boolean reused = version >= 2 && input.readBoolean();
+            long wallMillis = input.readLong();
+            if (version < 3) {
+                input.readLong();
+            }
+            tasks.add(new TaskSample(name, status, reused, wallMillis, input.readLong(), input.readLong()));
+        }
+        return new BuildRecord(timeMillis, exitCode, cacheHits, cacheMisses, tasks);
+    }
+}
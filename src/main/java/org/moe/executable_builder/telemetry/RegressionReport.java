@@ -0,0 +1,283 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.telemetry;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Compares recent durations of every task with its earlier history and flags statistically
+ * significant slowdowns, e.g. after an SDK or Xcode update.
+ * <p>
+ * For each task the last launches form the recent sample and the launches before them the baseline.
+ * A regression is reported when Welch's t-test rejects "recent is not slower" at the significance level
+ * and the slowdown is large enough to matter. Up-to-date and failed launches are left out, and so are
+ * launches which restored or reused their outputs, their timings say nothing about the tool.
+ */
+public class RegressionReport {
+
+    public static final int DEFAULT_WINDOW = 5;
+    public static final int DEFAULT_BASELINE = 20;
+    public static final double DEFAULT_ALPHA = 0.01;
+    public static final double DEFAULT_MIN_CHANGE = 0.1;
+
+    private static final String SUCCESS = "SUCCESS";
+
+    public static class TaskTrend {
+
+        private final String taskName;
+
+        private final double[] baseline;
+
+        private final double[] recent;
+
+        private final double pValue;
+
+        private final boolean regression;
+
+        TaskTrend(String taskName, double[] baseline, double[] recent, double pValue, boolean regression) {
+            this.taskName = taskName;
+            this.baseline = baseline;
+            this.recent = recent;
+            this.pValue = pValue;
+            this.regression = regression;
+        }
+
+        public String getTaskName() {
+            return taskName;
+        }
+
+        /**
+         * Returns whether there are enough launches to test, two in each sample.
+         */
+        public boolean isTestable() {
+            return baseline.length >= 2 && recent.length >= 2;
+        }
+
+        public double getBaselineMeanMillis() {
+            return baseline.length > 0 ? Statistics.mean(baseline) : Double.NaN;
+        }
+
+        public double getRecentMeanMillis() {
+            return recent.length > 0 ? Statistics.mean(recent) : Double.NaN;
+        }
+
+        /**
+         * Returns relative change of the mean duration, 0.2 means 20% slower.
+         */
+        public double getChange() {
+            return getRecentMeanMillis() / getBaselineMeanMillis() - 1;
+        }
+
+        /**
+         * Returns one-sided p-value of the slowdown, NaN if the task isn't testable.
+         */
+        public double getPValue() {
+            return pValue;
+        }
+
+        public boolean isRegression() {
+            return regression;
+        }
+    }
+
+    private final List<BuildRecord> records;
+
+    private final List<TaskTrend> trends = new ArrayList<TaskTrend>();
+
+    private final int window;
+
+    private final int baselineSize;
+
+    public RegressionReport(List<BuildRecord> records, int window, int baselineSize, double alpha, double minChange) {
+        this.records = records;
+        this.window = window;
+        this.baselineSize = baselineSize;
+
+        // Task names in order of their first appearance
+        Map<String, List<Double>> durations = new LinkedHashMap<String, List<Double>>();
+        for (BuildRecord record : records) {
+            for (BuildRecord.TaskSample task : record.getTasks()) {
+                if (!SUCCESS.equals(task.getStatus()) || task.isReused() || task.getWallMillis() < 0) {
+                    continue;
+                }
+                List<Double> values = durations.get(task.getName());
+                if (values == null) {
+                    values = new ArrayList<Double>();
+                    durations.put(task.getName(), values);
+                }
+                values.add((double) task.getWallMillis());
+            }
+        }
+
+        for (Map.Entry<String, List<Double>> entry : durations.entrySet()) {
+            List<Double> values = entry.getValue();
+            int recentStart = Math.max(0, values.size() - window);
+            double[] recent = toArray(values.subList(recentStart, values.size()));
+            double[] baseline = toArray(values.subList(Math.max(0, recentStart - baselineSize), recentStart));
+
+            double pValue = Double.NaN;
+            boolean regression = false;
+            if (baseline.length >= 2 && recent.length >= 2) {
+                pValue = Statistics.welchGreaterPValue(baseline, recent);
+                regression = pValue < alpha && Statistics.mean(recent) > Statistics.mean(baseline) * (1 + minChange);
+            }
+            trends.add(new TaskTrend(entry.getKey(), baseline, recent, pValue, regression));
+        }
+    }
+
+    private static double[] toArray(List<Double> values) {
+        double[] array = new double[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    public List<TaskTrend> getTrends() {
+        return Collections.unmodifiableList(trends);
+    }
+
+    public boolean hasRegressions() {
+        for (TaskTrend trend : trends) {
+            if (trend.isRegression()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void print(PrintStream out) {
+        if (records.isEmpty()) {
+            out.println("No builds recorded");
+            return;
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        int failed = 0;
+        for (BuildRecord record : records) {
+            if (record.getExitCode() != 0) {
+                failed++;
+            }
+        }
+        out.println(records.size() + " build(s) from " + format.format(new Date(records.get(0).getTimeMillis())) +
+                " to " + format.format(new Date(records.get(records.size() - 1).getTimeMillis())) + ", " + failed + " failed");
+
+        int recentStart = Math.max(0, records.size() - window);
+        out.println("Cache hit rate: baseline " +
+                formatHitRate(records.subList(Math.max(0, recentStart - baselineSize), recentStart)) +
+                ", recent " + formatHitRate(records.subList(recentStart, records.size())));
+
+        int nameWidth = 4;
+        for (TaskTrend trend : trends) {
+            nameWidth = Math.max(nameWidth, trend.getTaskName().length());
+        }
+        String row = "  %-" + nameWidth + "s  %20s  %16s  %8s  %8s  %s";
+        out.println(String.format(row, "Task", "Baseline", "Recent", "Change", "p-value", ""));
+        for (TaskTrend trend : trends) {
+            if (!trend.isTestable()) {
+                out.println(String.format(row, trend.getTaskName(), formatSample(trend.baseline), formatSample(trend.recent),
+                        "", "", "not enough launches"));
+                continue;
+            }
+            out.println(String.format(row, trend.getTaskName(),
+                    formatSample(trend.baseline) + " +-" + String.format("%.1f", Math.sqrt(Statistics.variance(trend.baseline)) / 1000),
+                    formatSample(trend.recent),
+                    String.format("%+.1f%%", trend.getChange() * 100),
+                    String.format("%.4f", trend.getPValue()),
+                    trend.isRegression() ? "REGRESSION" : ""));
+        }
+    }
+
+    private static String formatSample(double[] values) {
+        if (values.length == 0) {
+            return "-";
+        }
+        return String.format("%.1f s (%d)", Statistics.mean(values) / 1000, values.length);
+    }
+
+    private static String formatHitRate(List<BuildRecord> records) {
+        long hits = 0;
+        long lookups = 0;
+        for (BuildRecord record : records) {
+            hits += record.getCacheHits();
+            lookups += record.getCacheHits() + record.getCacheMisses();
+        }
+        return lookups > 0 ? String.format("%.1f%% of %d", 100.0 * hits / lookups, lookups) : "-";
+    }
+
+    /**
+     * Entry point of the "telemetry_report module_path [-window n] [-baseline n] [-alpha p] [-min_change f]" command.
+     *
+     * @return 0 if no regression was found, 2 otherwise
+     */
+    public static int run(String[] args) {
+        if (args.length < 2 || args.length % 2 != 0) {
+            printUsage(args[0]);
+            return 1;
+        }
+
+        int window = DEFAULT_WINDOW;
+        int baseline = DEFAULT_BASELINE;
+        double alpha = DEFAULT_ALPHA;
+        double minChange = DEFAULT_MIN_CHANGE;
+        try {
+            for (int i = 2; i < args.length; i += 2) {
+                if ("-window".equals(args[i])) {
+                    window = Integer.parseInt(args[i + 1]);
+                } else if ("-baseline".equals(args[i])) {
+                    baseline = Integer.parseInt(args[i + 1]);
+                } else if ("-alpha".equals(args[i])) {
+                    alpha = Double.parseDouble(args[i + 1]);
+                } else if ("-min_change".equals(args[i])) {
+                    minChange = Double.parseDouble(args[i + 1]);
+                } else {
+                    printUsage(args[0]);
+                    return 1;
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number: " + e.getMessage());
+            return 1;
+        }
+        if (window < 2 || baseline < 2) {
+            System.err.println("Window and baseline need at least 2 builds");
+            return 1;
+        }
+
+        TelemetryStore store = new TelemetryStore(TelemetryStore.getDefaultFile(args[1]));
+        List<BuildRecord> records;
+        try {
+            records = store.readAll();
+        } catch (IOException e) {
+            System.err.println("Failed to read telemetry: " + e.getMessage());
+            return 1;
+        }
+
+        System.out.println("Telemetry " + store.getFile().getAbsolutePath());
+        RegressionReport report = new RegressionReport(records, window, baseline, alpha, minChange);
+        report.print(System.out);
+        return report.hasRegressions() ? 2 : 0;
+    }
+
+    private static void printUsage(String command) {
+        System.err.println("Usage: java -jar moeExecutableBuilder.jar " + command +
+                " <module path> [-window n] [-baseline n] [-alpha p] [-min_change fraction]");
+    }
+}
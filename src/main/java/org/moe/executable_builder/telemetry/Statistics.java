@@ -0,0 +1,148 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.telemetry;
+
+/**
+ * Sample statistics and Welch's t-test.
+ */
+class Statistics {
+
+    private static final int MAX_ITERATIONS = 300;
+    private static final double EPSILON = 1e-12;
+    private static final double TINY = 1e-300;
+
+    static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    /**
+     * Returns unbiased sample variance, at least two values are needed.
+     */
+    static double variance(double[] values) {
+        double mean = mean(values);
+        double sum = 0;
+        for (double value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return sum / (values.length - 1);
+    }
+
+    /**
+     * Welch's t-test of the hypothesis that the mean of the second sample is greater than the mean of the first.
+     * Samples may differ in size and variance, each needs at least two values.
+     *
+     * @return one-sided p-value
+     */
+    static double welchGreaterPValue(double[] first, double[] second) {
+        double firstError = variance(first) / first.length;
+        double secondError = variance(second) / second.length;
+        double difference = mean(second) - mean(first);
+        double error = firstError + secondError;
+        if (error == 0) {
+            // Constant samples: any increase is certain, no increase never is
+            return difference > 0 ? 0 : 1;
+        }
+
+        double t = difference / Math.sqrt(error);
+        double degrees = error * error / (firstError * firstError / (first.length - 1) +
+                secondError * secondError / (second.length - 1));
+        return 1 - studentCdf(t, degrees);
+    }
+
+    /**
+     * Returns cumulative distribution function of Student's t distribution.
+     */
+    static double studentCdf(double t, double degrees) {
+        double tail = 0.5 * regularizedBeta(degrees / (degrees + t * t), degrees / 2, 0.5);
+        return t > 0 ? 1 - tail : tail;
+    }
+
+    /**
+     * Returns regularized incomplete beta function I_x(a, b), evaluated by a continued fraction.
+     */
+    static double regularizedBeta(double x, double a, double b) {
+        if (x <= 0) {
+            return 0;
+        }
+        if (x >= 1) {
+            return 1;
+        }
+        // The continued fraction converges quickly only below the mean of the distribution
+        if (x > (a + 1) / (a + b + 2)) {
+            return 1 - regularizedBeta(1 - x, b, a);
+        }
+        double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x) + b * Math.log(1 - x)) / a;
+        return front * betaFraction(x, a, b);
+    }
+
+    /*
+    Modified Lentz's method
+     */
+    private static double betaFraction(double x, double a, double b) {
+        double c = 1;
+        double d = 1 - (a + b) * x / (a + 1);
+        d = 1 / (Math.abs(d) < TINY ? TINY : d);
+        double result = d;
+        for (int m = 1; m <= MAX_ITERATIONS; m++) {
+            // Even step
+            double numerator = m * (b - m) * x / ((a + 2 * m - 1) * (a + 2 * m));
+            d = 1 + numerator * d;
+            d = 1 / (Math.abs(d) < TINY ? TINY : d);
+            c = 1 + numerator / c;
+            c = Math.abs(c) < TINY ? TINY : c;
+            result *= d * c;
+
+            // Odd step
+            numerator = -(a + m) * (a + b + m) * x / ((a + 2 * m) * (a + 2 * m + 1));
+            d = 1 + numerator * d;
+            d = 1 / (Math.abs(d) < TINY ? TINY : d);
+            c = 1 + numerator / c;
+            c = Math.abs(c) < TINY ? TINY : c;
+            double delta = d * c;
+            result *= delta;
+            if (Math.abs(delta - 1) < EPSILON) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /*
+    Lanczos approximation, accurate to about 15 digits for positive arguments
+     */
+    private static final double[] LANCZOS = {
+            0.99999999999980993, 676.5203681218851, -1259.1392167224028, 771.32342877765313,
+            -176.61502916214059, 12.507343278686905, -0.13857109526572012, 9.9843695780195716e-6,
+            1.5056327351493116e-7};
+
+    static double logGamma(double x) {
+        if (x < 0.5) {
+            return Math.log(Math.PI / Math.abs(Math.sin(Math.PI * x))) - logGamma(1 - x);
+        }
+        x -= 1;
+        double sum = LANCZOS[0];
+        for (int i = 1; i < LANCZOS.length; i++) {
+            sum += LANCZOS[i] / (x + i);
+        }
+        double t = x + LANCZOS.length - 1.5;
+        return 0.5 * Math.log(2 * Math.PI) + (x + 0.5) * Math.log(t) - t + Math.log(sum);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.telemetry;
+
+import org.moe.executable_builder.helpers.PathLock;
+import org.moe.executable_builder.task.BaseTask;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only history of builds of a module, build/moe/telemetry/builds.bin.
+ * <p>
+ * The file starts with a magic number, every record is framed by its length and a CRC32 of
+ * its content. A record torn by a crash is detected and ignored together with anything after it.
+ */
+public class TelemetryStore {
+
+    public static final String FILE_NAME = "builds.bin";
+
+    /*
+    Last byte is the format version, records are appended in the version of the file
+     */
+    private static final byte[] MAGIC = {'M', 'O', 'E', 'T', 'L', 'M', 0, 3};
+
+    private static final int VERSION = 3;
+
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+    private final File file;
+
+    public TelemetryStore(File file) {
+        this.file = file;
+    }
+
+    public static File getDefaultFile(String modulePath) {
+        return new File(modulePath, "build" + File.separator + BaseTask.MOE + File.separator +
+                "telemetry" + File.separator + FILE_NAME);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Appends a record, concurrent builds of the module append one after the other.
+     */
+    public void append(BuildRecord record) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create " + parent.getAbsolutePath());
+        }
+        PathLock lock = PathLock.acquire(new File(parent, file.getName() + ".lock"));
+        try {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                long end = channel.size();
+                int version = VERSION;
+                if (end == 0) {
+                    writeFully(channel, ByteBuffer.wrap(MAGIC), 0);
+                    end = MAGIC.length;
+                } else {
+                    version = readVersion(channel);
+                }
+                writeFully(channel, frame(record, version), end);
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    private int readVersion(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+        while (magic.hasRemaining()) {
+            if (channel.read(magic, magic.position()) < 0) {
+                throw new IOException(file + " is not a telemetry file");
+            }
+        }
+        int version = getVersion(magic.array());
+        if (version < 0) {
+            throw new IOException(file + " is not a telemetry file");
+        }
+        return version;
+    }
+
+    /**
+     * Returns format version of the file with the given magic number, -1 if it isn't a telemetry file.
+     */
+    private static int getVersion(byte[] magic) {
+        for (int i = 0; i < MAGIC.length - 1; i++) {
+            if (magic[i] != MAGIC[i]) {
+                return -1;
+            }
+        }
+        int version = magic[MAGIC.length - 1];
+        return version >= 1 && version <= VERSION ? version : -1;
+    }
+
+    private static ByteBuffer frame(BuildRecord record, int version) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream output = new DataOutputStream(bytes);
+        record.write(output, version);
+        output.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        ByteBuffer frame = ByteBuffer.allocate(4 + bytes.size() + 4);
+        frame.putInt(bytes.size());
+        frame.put(bytes.toByteArray());
+        frame.putInt((int) crc.getValue());
+        frame.flip();
+        return frame;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Reads all complete records in the order they were appended, empty if there is no history.
+     */
+    public List<BuildRecord> readAll() throws IOException {
+        List<BuildRecord> records = new ArrayList<BuildRecord>();
+        if (!file.isFile()) {
+            return records;
+        }
+
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            input.readFully(magic);
+            int version = getVersion(magic);
+            if (version < 0) {
+                throw new IOException(file + " is not a telemetry file");
+            }
+
+            while (true) {
+                int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < 0 || length > MAX_RECORD_SIZE) {
+                    System.err.println("Ignoring corrupted end of " + file);
+                    break;
+                }
+                byte[] content = new byte[length];
+                int checksum;
+                try {
+                    input.readFully(content);
+                    checksum = input.readInt();
+                } catch (EOFException e) {
+                    System.err.println("Ignoring incomplete last record of " + file);
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(content);
+                if ((int) crc.getValue() != checksum) {
+                    System.err.println("Ignoring corrupted end of " + file);
+                    break;
+                }
+                records.add(BuildRecord.read(new DataInputStream(new ByteArrayInputStream(content)), version));
+            }
+        } catch (EOFException e) {
+            throw new IOException(file + " is not a telemetry file");
+        } finally {
+            input.close();
+        }
+        return records;
+    }
+}
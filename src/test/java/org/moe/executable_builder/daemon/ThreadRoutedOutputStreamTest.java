@@ -0,0 +1,58 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.moe.executable_builder.daemon;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class ThreadRoutedOutputStreamTest {
+
+    @Test
+    public void threadStartedDuringBuildLosesRouteWithIt() throws Exception {
+        ByteArrayOutputStream fallback = new ByteArrayOutputStream();
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+        final ThreadRoutedOutputStream stream = new ThreadRoutedOutputStream(fallback);
+
+        stream.route(client);
+        // Long-lived thread started by the build, e.g. of a shared pool
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(write(stream, 'a')).get(10, TimeUnit.SECONDS);
+            stream.reset();
+            executor.submit(write(stream, 'b')).get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("a", client.toString("UTF-8"));
+        assertEquals("b", fallback.toString("UTF-8"));
+    }
+
+    private static Callable<Void> write(final ThreadRoutedOutputStream stream, final char c) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                stream.write(c);
+                return null;
+            }
+        };
+    }
+}
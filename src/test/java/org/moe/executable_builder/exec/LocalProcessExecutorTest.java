@@ -0,0 +1,79 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.exec;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LocalProcessExecutorTest {
+
+    @Test
+    public void deliversBothStreamsOnCallingThread() throws IOException {
+        Command command = new Command("/bin/sh");
+        command.getArguments().add("-c");
+        command.getArguments().add("for i in 1 2 3; do echo out$i; echo err$i >&2; done");
+
+        RecordingListener listener = new RecordingListener();
+        int exitCode = LocalProcessExecutor.getDefault().execute(command, listener, null);
+
+        assertEquals(0, exitCode);
+        assertEquals("[out1, out2, out3]", listener.stdout.toString());
+        assertEquals("[err1, err2, err3]", listener.stderr.toString());
+        for (Thread thread : listener.threads) {
+            assertSame(Thread.currentThread(), thread);
+        }
+    }
+
+    @Test
+    public void deliversOutputLargerThanQueue() throws IOException {
+        Command command = new Command("/bin/sh");
+        command.getArguments().add("-c");
+        command.getArguments().add("i=0; while [ $i -lt 5000 ]; do echo $i; echo $i >&2; i=$((i+1)); done");
+
+        RecordingListener listener = new RecordingListener();
+        assertEquals(0, LocalProcessExecutor.getDefault().execute(command, listener, null));
+        assertEquals(5000, listener.stdout.size());
+        assertEquals(5000, listener.stderr.size());
+        assertEquals("4999", listener.stderr.get(4999));
+    }
+
+    private static class RecordingListener implements OutputListener {
+
+        final List<String> stdout = new ArrayList<String>();
+
+        final List<String> stderr = new ArrayList<String>();
+
+        final List<Thread> threads = new ArrayList<Thread>();
+
+        @Override
+        public void stdout(String line) {
+            stdout.add(line);
+            threads.add(Thread.currentThread());
+        }
+
+        @Override
+        public void stderr(String line) {
+            stderr.add(line);
+            threads.add(Thread.currentThread());
+        }
+    }
+}
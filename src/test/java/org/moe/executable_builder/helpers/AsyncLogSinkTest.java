@@ -0,0 +1,77 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.moe.executable_builder.helpers;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AsyncLogSinkTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void writesAllLinesInOrder() throws IOException {
+        File file = temp.newFile("build.log");
+        AsyncLogSink sink = new AsyncLogSink(file, false);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(sink.append("line " + i));
+        }
+        sink.close();
+
+        List<String> lines = Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+        assertEquals(1000, lines.size());
+        assertEquals("line 999", lines.get(999));
+    }
+
+    @Test
+    public void marksDroppedLinesWhereTheyWereDropped() throws IOException {
+        int count = 200000;
+        File file = temp.newFile("build.log");
+        // Tiny buffer, the writer can't keep up with the producer
+        AsyncLogSink sink = new AsyncLogSink(file, false, 4);
+        for (int i = 0; i < count; i++) {
+            sink.append("line " + i);
+        }
+        sink.close();
+
+        long accounted = 0;
+        long gap = 0;
+        long next = 0;
+        for (String line : Files.readAllLines(file.toPath(), Charset.forName("UTF-8"))) {
+            if (line.startsWith("[")) {
+                gap += Long.parseLong(line.substring(1, line.indexOf(' ')));
+                continue;
+            }
+            // Every missing line is counted by a marker right before the next written one
+            long number = Long.parseLong(line.substring("line ".length()));
+            assertEquals(next + gap, number);
+            accounted += gap + 1;
+            next = number + 1;
+            gap = 0;
+        }
+        assertEquals(count, accounted + gap);
+    }
+}
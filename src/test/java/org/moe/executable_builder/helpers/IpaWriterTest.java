@@ -0,0 +1,191 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.moe.executable_builder.helpers;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class IpaWriterTest {
+
+    // Above the threshold of entries deflated in memory, so it is streamed
+    private static final int LARGE_SIZE = 9 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File app;
+
+    @Before
+    public void createApp() throws IOException {
+        app = temp.newFolder("Main.app");
+        write("Info.plist", "<plist/>".getBytes("UTF-8"), "rw-r--r--");
+        write("Main", new byte[] {(byte) 0xCF, (byte) 0xFA, (byte) 0xED, (byte) 0xFE}, "rwxr-xr-x");
+        write("Empty.txt", new byte[0], "rw-r--r--");
+        write("Assets.car", large(), "rw-r--r--");
+        write("Frameworks/A.framework/Versions/A/A", new byte[] {1, 2, 3}, "rwxr-xr-x");
+        Files.createSymbolicLink(new File(app, "Frameworks/A.framework/Current").toPath(), Paths.get("Versions/A"));
+    }
+
+    @Test
+    public void writesEntriesReadableByZipFile() throws IOException {
+        File ipa = new File(temp.getRoot(), "Main.ipa");
+        new IpaWriter().write(app, ipa);
+
+        ZipFile zip = new ZipFile(ipa);
+        try {
+            List<String> names = new ArrayList<String>();
+            for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+                names.add(entries.nextElement().getName());
+            }
+            assertEquals(Arrays.asList(
+                    "Payload/",
+                    "Payload/Main.app/",
+                    "Payload/Main.app/Assets.car",
+                    "Payload/Main.app/Empty.txt",
+                    "Payload/Main.app/Frameworks/",
+                    "Payload/Main.app/Frameworks/A.framework/",
+                    "Payload/Main.app/Frameworks/A.framework/Current",
+                    "Payload/Main.app/Frameworks/A.framework/Versions/",
+                    "Payload/Main.app/Frameworks/A.framework/Versions/A/",
+                    "Payload/Main.app/Frameworks/A.framework/Versions/A/A",
+                    "Payload/Main.app/Info.plist",
+                    "Payload/Main.app/Main"), names);
+
+            assertArrayEquals("<plist/>".getBytes("UTF-8"), read(zip, "Payload/Main.app/Info.plist"));
+            assertArrayEquals(new byte[] {(byte) 0xCF, (byte) 0xFA, (byte) 0xED, (byte) 0xFE},
+                    read(zip, "Payload/Main.app/Main"));
+            assertArrayEquals(new byte[0], read(zip, "Payload/Main.app/Empty.txt"));
+            assertEquals(0, zip.getEntry("Payload/Main.app/Empty.txt").getSize());
+            assertArrayEquals(large(), read(zip, "Payload/Main.app/Assets.car"));
+            assertEquals(LARGE_SIZE, zip.getEntry("Payload/Main.app/Assets.car").getSize());
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("Payload/Main.app/Assets.car").getMethod());
+            // Links are stored as their target
+            assertArrayEquals("Versions/A".getBytes("UTF-8"),
+                    read(zip, "Payload/Main.app/Frameworks/A.framework/Current"));
+        } finally {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void keepsModesAndLinksForUnzip() throws IOException, InterruptedException {
+        File ipa = new File(temp.getRoot(), "Main.ipa");
+        new IpaWriter().write(app, ipa);
+
+        assertEquals("", unzip("-tqq", ipa.getPath()));
+        Map<String, String[]> listing = new HashMap<String, String[]>();
+        for (String line : unzip("-Z", ipa.getPath()).split("\n")) {
+            String[] columns = line.trim().split("\\s+");
+            // Entry lines start with the mode, the header and totals don't
+            if (columns.length == 9 && columns[0].matches("[-dl][-rwxsStT]{9}")) {
+                listing.put(columns[8], columns);
+            }
+        }
+
+        assertEquals("-rw-r--r--", listing.get("Payload/Main.app/Info.plist")[0]);
+        assertEquals("-rwxr-xr-x", listing.get("Payload/Main.app/Main")[0]);
+        assertEquals("-rwxr-xr-x", listing.get("Payload/Main.app/Frameworks/A.framework/Versions/A/A")[0]);
+        assertEquals("-rw-r--r--", listing.get("Payload/Main.app/Empty.txt")[0]);
+        assertEquals("0", listing.get("Payload/Main.app/Empty.txt")[3]);
+        assertEquals(String.valueOf(LARGE_SIZE), listing.get("Payload/Main.app/Assets.car")[3]);
+        assertTrue(listing.get("Payload/Main.app/Frameworks/A.framework/Current")[0].startsWith("l"));
+        assertTrue(listing.get("Payload/Main.app/Frameworks/")[0].startsWith("d"));
+        for (String[] columns : listing.values()) {
+            assertEquals(columns[8], "unx", columns[2]);
+        }
+    }
+
+    @Test
+    public void writesSameBytesWithFixedTimestamp() throws IOException {
+        long timestamp = IpaWriter.getReproducibleTimestamp();
+        File first = new File(temp.getRoot(), "first.ipa");
+        new IpaWriter().setTimestamp(timestamp).setThreads(1).write(app, first);
+
+        // Times of the files and the number of workers don't matter
+        Files.setLastModifiedTime(new File(app, "Main").toPath(), FileTime.fromMillis(System.currentTimeMillis() + 60000));
+        File second = new File(temp.getRoot(), "second.ipa");
+        new IpaWriter().setTimestamp(timestamp).setThreads(4).write(app, second);
+
+        assertArrayEquals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath()));
+    }
+
+    private void write(String path, byte[] content, String permissions) throws IOException {
+        File file = new File(app, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content);
+        Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString(permissions));
+    }
+
+    /**
+     * Returns compressible content, the same on every call.
+     */
+    private static byte[] large() {
+        byte[] content = new byte[LARGE_SIZE];
+        Random random = new Random(42);
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + random.nextInt(4));
+        }
+        return content;
+    }
+
+    private static byte[] read(ZipFile zip, String name) throws IOException {
+        return read(zip.getInputStream(zip.getEntry(name)));
+    }
+
+    private static String unzip(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<String>();
+        command.add("unzip");
+        command.addAll(Arrays.asList(args));
+        Process process;
+        try {
+            process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            assumeTrue("unzip is not installed", false);
+            throw e;
+        }
+        String output = new String(read(process.getInputStream()), "UTF-8");
+        assertEquals(output, 0, process.waitFor());
+        return output;
+    }
+
+    private static byte[] read(InputStream input) throws IOException {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.moe.executable_builder.helpers;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PBXProjectEditorTest {
+
+    /*
+    Project with two shell script phases, lines starting with '-' are the ones removing them must delete.
+    The second phase is the last element of buildPhases and has no comma after it.
+     */
+    private static final String[] PROJECT = {
+            "  // !$*UTF8*$!",
+            "  {",
+            "  \tarchiveVersion = 1;",
+            "  \tobjectVersion = 46;",
+            "  \tobjects = {",
+            "  ",
+            "  /* Begin PBXNativeTarget section */",
+            "  \t\t8D1107260486CEB800E47090 /* Main */ = {",
+            "  \t\t\tisa = PBXNativeTarget;",
+            "  \t\t\tbuildPhases = (",
+            "- \t\t\t\t1D60588E0D05DD3D006BFB54 /* Copy MOE Frameworks */,",
+            "  \t\t\t\t8D11072C0486CEB800E47090 /* Sources */,",
+            "- \t\t\t\t1D60588F0D05DD3D006BFB54 /* \"Run\" Script */",
+            "  \t\t\t);",
+            "  \t\t\tname = \"Main App\";",
+            "  \t\t\tproductName = 'Main';",
+            "  \t\t};",
+            "  /* End PBXNativeTarget section */",
+            "  ",
+            "- /* Begin PBXShellScriptBuildPhase section */",
+            "- \t\t1D60588E0D05DD3D006BFB54 /* Copy MOE Frameworks */ = {",
+            "- \t\t\tisa = PBXShellScriptBuildPhase;",
+            "- \t\t\tbuildActionMask = 2147483647;",
+            "- \t\t\tfiles = (",
+            "- \t\t\t);",
+            "- \t\t\tshellPath = /bin/sh;",
+            "- \t\t\tshellScript = \"echo \\\"copy }; ) /* not a comment */\\\"\\nexit 0\\n\";",
+            "- \t\t};",
+            "- \t\t1D60588F0D05DD3D006BFB54 /* \"Run\" Script */ = {",
+            "- \t\t\tisa = PBXShellScriptBuildPhase;",
+            "- \t\t\tname = \"\\\"Run\\\" Script\";",
+            "- \t\t\tshellScript = \"cd \\\"$SRCROOT\\\"\\n./gradlew moeLaunch\\n\";",
+            "- \t\t};",
+            "- /* End PBXShellScriptBuildPhase section */",
+            "  ",
+            "  /* Begin PBXSourcesBuildPhase section */",
+            "  \t\t8D11072C0486CEB800E47090 /* Sources */ = {",
+            "  \t\t\tisa = PBXSourcesBuildPhase;",
+            "  \t\t\tfiles = (",
+            "  \t\t\t);",
+            "  \t\t\tcomment = \"Phase 1D60588E0D05DD3D006BFB54 \\\\ quoted;\";",
+            "  \t\t};",
+            "  /* End PBXSourcesBuildPhase section */",
+            "  \t};",
+            "  \trootObject = 8D1107260486CEB800E47090 /* Project object */;",
+            "  }",
+    };
+
+    @Test
+    public void parsesQuotedAndEscapedStrings() throws IOException {
+        PlistNode.Dictionary root = (PlistNode.Dictionary)PlistParser.parse(
+                "// !$*UTF8*$!\n{\n\ta = \"say \\\"hi\\\"\\n\\ttab \\\\ \\U00e9\";\n\tb = 'single \"quoted\"';\n" +
+                        "\tc = \"/* kept */ // kept\";\n\t\"quoted key\" = <0a 0b>;\n\td = (x, \"y\" /* y */);\n}\n");
+
+        assertEquals("say \"hi\"\n\ttab \\ \u00e9", root.getString("a"));
+        assertEquals("single \"quoted\"", root.getString("b"));
+        assertEquals("/* kept */ // kept", root.getString("c"));
+        assertEquals("<0a 0b>", root.getString("quoted key"));
+        List<PlistNode> d = root.getArray("d");
+        assertEquals(2, d.size());
+        assertEquals("y", ((PlistNode.Text)d.get(1)).getValue());
+    }
+
+    @Test
+    public void elementRangeOfLastElementEndsAtItsComment() throws IOException {
+        String text = "{ a = (x /* x */, y /* y */\n); }";
+        PlistNode.Dictionary root = (PlistNode.Dictionary)PlistParser.parse(text);
+        List<PlistNode.Element> elements = ((PlistNode.Array)root.get("a")).getElements();
+
+        assertEquals("x /* x */,", text.substring(elements.get(0).getStart(), elements.get(0).getEnd()));
+        assertEquals("y /* y */", text.substring(elements.get(1).getStart(), elements.get(1).getEnd()));
+    }
+
+    @Test
+    public void removesShellScriptPhasesOnly() throws IOException {
+        assertRemoved("\n");
+    }
+
+    @Test
+    public void removesShellScriptPhasesWithCrLf() throws IOException {
+        assertRemoved("\r\n");
+    }
+
+    @Test
+    public void leavesProjectWithoutShellScriptPhases() throws IOException {
+        String text = join(false, "\n");
+        PBXProjectEditor editor = PBXProject.parse(text).edit();
+        editor.removeSection("PBXShellScriptBuildPhase");
+        // Only mentioned in a string, not an object
+        editor.removeObject("1D60588E0D05DD3D006BFB54");
+
+        assertFalse(editor.isChanged());
+        assertEquals(text, editor.apply());
+    }
+
+    private void assertRemoved(String lineSeparator) throws IOException {
+        PBXProject project = PBXProject.parse(join(true, lineSeparator));
+        PBXProjectEditor editor = project.edit();
+        editor.removeSection("PBXShellScriptBuildPhase");
+
+        assertTrue(editor.isChanged());
+        assertEquals(2, editor.getRemovedObjects().size());
+        assertEquals(join(false, lineSeparator), editor.apply());
+        // The edited project is still valid
+        assertEquals(0, PBXProject.parse(editor.apply()).findObjects("PBXShellScriptBuildPhase").size());
+    }
+
+    /**
+     * Returns the project, with the lines to be removed or without them.
+     */
+    private static String join(boolean withRemoved, String lineSeparator) {
+        StringBuilder text = new StringBuilder();
+        for (String line : PROJECT) {
+            if (withRemoved || line.charAt(0) != '-') {
+                text.append(line.substring(2)).append(lineSeparator);
+            }
+        }
+        return text.toString();
+    }
+}
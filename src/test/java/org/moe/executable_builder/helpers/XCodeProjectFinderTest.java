@@ -0,0 +1,47 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.moe.executable_builder.helpers;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class XCodeProjectFinderTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void findsProjectGeneratedAfterMiss() throws IOException {
+        File module = temp.newFolder("module");
+        new File(module, "build").mkdirs();
+        long lastModified = module.lastModified();
+        XCodeProjectFinder finder = new XCodeProjectFinder();
+        assertNull(finder.find(module));
+
+        File project = new File(module, "build/xcode/Main.xcodeproj/project.pbxproj");
+        project.getParentFile().mkdirs();
+        assertTrue(project.createNewFile());
+        assertEquals(lastModified, module.lastModified());
+
+        assertEquals(project.getCanonicalFile(), finder.find(module).getCanonicalFile());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class TaskStateStoreTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void estimatesOnlyLaunchesWhichRanTheTool() throws IOException {
+        TaskStateStore store = TaskStateStore.load(new File(temp.getRoot(), TaskStateStore.FILE_NAME));
+
+        SleepingTask compiled = new SleepingTask(50, false);
+        run(compiled, store);
+        long estimate = store.getEstimatedMillis(compiled);
+        assertTrue("Estimate " + estimate, estimate >= 50);
+
+        SleepingTask restored = new SleepingTask(0, true);
+        run(restored, store);
+        assertEquals(estimate, store.getEstimatedMillis(restored));
+    }
+
+    @Test
+    public void noEstimateWithoutLaunchOfTheTool() throws IOException {
+        TaskStateStore store = TaskStateStore.load(new File(temp.getRoot(), TaskStateStore.FILE_NAME));
+
+        SleepingTask restored = new SleepingTask(0, true);
+        run(restored, store);
+        assertEquals(-1, store.getEstimatedMillis(restored));
+    }
+
+    private static void run(BaseTask task, TaskStateStore store) {
+        TaskManager taskManager = new TaskManager(1);
+        taskManager.setStateStore(store);
+        taskManager.addTask(task);
+        taskManager.runAll();
+    }
+
+    private static class SleepingTask extends BaseTask {
+
+        private final long millis;
+
+        private final boolean restored;
+
+        SleepingTask(long millis, boolean restored) {
+            this.millis = millis;
+            this.restored = restored;
+        }
+
+        @Override
+        void launch() {
+            if (restored) {
+                getMetrics().recordCacheLookup(true);
+                return;
+            }
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                throw new BuildException("Interrupted");
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.moe.executable_builder.task.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class DirectoryCacheBackendTest {
+
+    private static final String KEY = "0123456789abcdef";
+
+    private static final int ROUNDS = 50;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void missesUnknownBlob() throws IOException {
+        DirectoryCacheBackend backend = new DirectoryCacheBackend(temp.newFolder("shared"));
+        assertFalse(backend.get(KEY, "arm64.oat", new File(temp.getRoot(), "target")));
+    }
+
+    @Test
+    public void concurrentWritersPublishWholeBlobs() throws Exception {
+        final byte[] content = HttpCacheBackendTest.content(1024 * 1024);
+        // Two agents sharing the directory, each with its own copy of the output
+        final DirectoryCacheBackend first = new DirectoryCacheBackend(temp.newFolder("shared"));
+        final DirectoryCacheBackend second = new DirectoryCacheBackend(first.root);
+        final File[] sources = {temp.newFile("first.oat"), temp.newFile("second.oat")};
+        for (File source : sources) {
+            Files.write(source.toPath(), content);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final CyclicBarrier start = new CyclicBarrier(3);
+            Future<?> firstWriter = executor.submit(writer(first, sources[0], start));
+            Future<?> secondWriter = executor.submit(writer(second, sources[1], start));
+            Future<?> reader = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    File target = new File(temp.getRoot(), "read.oat");
+                    for (int i = 0; i < ROUNDS; i++) {
+                        // Readers see either no blob or the whole one
+                        if (first.get(KEY, "arm64.oat", target)) {
+                            assertTrue(Arrays.equals(content, Files.readAllBytes(target.toPath())));
+                        }
+                    }
+                    return null;
+                }
+            });
+            firstWriter.get(60, TimeUnit.SECONDS);
+            secondWriter.get(60, TimeUnit.SECONDS);
+            reader.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        File entry = first.getEntry(KEY);
+        assertEquals(Arrays.asList("arm64.oat"), Arrays.asList(entry.list()));
+        assertArrayEquals(content, Files.readAllBytes(new File(entry, "arm64.oat").toPath()));
+    }
+
+    private static Callable<Void> writer(final DirectoryCacheBackend backend, final File source,
+                                         final CyclicBarrier start) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                start.await();
+                for (int i = 0; i < ROUNDS; i++) {
+                    backend.put(KEY, "arm64.oat", source);
+                }
+                return null;
+            }
+        };
+    }
+}
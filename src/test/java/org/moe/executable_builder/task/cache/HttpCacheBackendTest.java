@@ -0,0 +1,184 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.moe.executable_builder.task.cache;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class HttpCacheBackendTest {
+
+    private static final String KEY = "0123456789abcdef";
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    /*
+    Blobs of the stand-in server by path
+     */
+    private final Map<String, byte[]> blobs = new ConcurrentHashMap<String, byte[]>();
+
+    private HttpServer server;
+
+    private HttpCacheBackend backend;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        server.createContext("/cache/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        backend = new HttpCacheBackend("http://127.0.0.1:" + server.getAddress().getPort() + "/cache/");
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        byte[] body = read(exchange.getRequestBody());
+        if ("PUT".equals(exchange.getRequestMethod())) {
+            if (path.endsWith("/rejected")) {
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            blobs.put(path, body);
+            exchange.sendResponseHeaders(201, -1);
+            return;
+        }
+
+        byte[] blob = blobs.get(path);
+        if (blob == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        if (path.endsWith("/truncated")) {
+            // Announces the whole blob but the connection drops after half of it
+            exchange.sendResponseHeaders(200, blob.length);
+            exchange.getResponseBody().write(blob, 0, blob.length / 2);
+            exchange.getResponseBody().flush();
+            return;
+        }
+        exchange.sendResponseHeaders(200, blob.length);
+        exchange.getResponseBody().write(blob);
+    }
+
+    @Test
+    public void restoresPublishedBlob() throws IOException {
+        byte[] content = content(100000);
+        backend.put(KEY, "arm64.oat", file("source", content));
+
+        File target = new File(temp.getRoot(), "target");
+        assertTrue(backend.get(KEY, "arm64.oat", target));
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertArrayEquals(content, blobs.get("/cache/" + KEY + "/arm64.oat"));
+    }
+
+    @Test
+    public void missesUnknownBlob() throws IOException {
+        File target = new File(temp.getRoot(), "target");
+        assertFalse(backend.get(KEY, "arm64.oat", target));
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void rejectsTruncatedBody() throws IOException {
+        blobs.put("/cache/" + KEY + "/truncated", content(100000));
+
+        try {
+            backend.get(KEY, "truncated", new File(temp.getRoot(), "target"));
+            fail("Truncated blob was accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void reportsFailedPut() throws IOException {
+        try {
+            backend.put(KEY, "rejected", file("source", content(1000)));
+            fail("Failed upload wasn't reported");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("500"));
+        }
+        assertTrue(blobs.isEmpty());
+    }
+
+    @Test
+    public void failedBackendIsCacheMiss() throws IOException {
+        blobs.put("/cache/" + KEY + "/arm64.oat", content(100000));
+        server.removeContext("/cache/");
+        server.createContext("/cache/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+            }
+        });
+
+        File output = new File(temp.getRoot(), "arm64.oat");
+        assertFalse(new ArtifactCache(Collections.<CacheBackend>singletonList(backend)).restore(KEY, output));
+        assertFalse(output.exists());
+    }
+
+    private File file(String name, byte[] content) throws IOException {
+        File file = temp.newFile(name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31 + i / 251);
+        }
+        return content;
+    }
+
+    private static byte[] read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.task.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class TreeArchiveTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void restoresFilesModesAndLinks() throws IOException {
+        File app = temp.newFolder("Main.app");
+        Files.write(new File(app, "Info.plist").toPath(), "plist".getBytes("UTF-8"));
+        File binary = new File(app, "Main");
+        Files.write(binary.toPath(), new byte[] {1, 2, 3});
+        binary.setExecutable(true);
+        File frameworks = new File(app, "Frameworks/A.framework/Versions/A");
+        frameworks.mkdirs();
+        Files.createSymbolicLink(new File(app, "Frameworks/A.framework/Current").toPath(), Paths.get("Versions/A"));
+
+        File archive = temp.newFile("app.tree");
+        TreeArchive.write(app, archive);
+        File restored = new File(temp.getRoot(), "restored.app");
+        TreeArchive.read(archive, restored);
+
+        assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(new File(restored, "Main").toPath()));
+        assertTrue(Files.getPosixFilePermissions(new File(restored, "Main").toPath())
+                .contains(PosixFilePermission.OWNER_EXECUTE));
+        Path link = new File(restored, "Frameworks/A.framework/Current").toPath();
+        assertTrue(Files.isSymbolicLink(link));
+        assertEquals(Paths.get("Versions/A"), Files.readSymbolicLink(link));
+    }
+
+    @Test
+    public void rejectsWriteThroughAbsoluteLink() throws IOException {
+        File outside = temp.newFolder("home");
+        File archive = new Blob()
+                .link("foo", outside.getAbsolutePath())
+                .file("foo/authorized_keys", "key")
+                .write(temp.newFile("hostile.tree"));
+
+        assertRejected(archive);
+        assertFalse(new File(outside, "authorized_keys").exists());
+    }
+
+    @Test
+    public void rejectsWriteThroughLinkDefinedLater() throws IOException {
+        File outside = temp.newFolder("home");
+        File archive = new Blob()
+                .file("foo/authorized_keys", "key")
+                .link("foo", outside.getAbsolutePath())
+                .write(temp.newFile("hostile.tree"));
+
+        assertRejected(archive);
+        assertFalse(new File(outside, "authorized_keys").exists());
+    }
+
+    @Test
+    public void rejectsRelativeLinkOutsideOfDirectory() throws IOException {
+        File archive = new Blob()
+                .directory("a")
+                .link("a/up", "../..")
+                .write(temp.newFile("hostile.tree"));
+
+        assertRejected(archive);
+    }
+
+    @Test
+    public void rejectsChainOfLinksOutsideOfDirectory() throws IOException {
+        // By name x/y/l1/../.. is x, but l1 itself points two levels up
+        File archive = new Blob()
+                .directory("x/y")
+                .link("x/y/l1", "../..")
+                .link("l2", "x/y/l1/../..")
+                .write(temp.newFile("hostile.tree"));
+
+        assertRejected(archive);
+    }
+
+    @Test
+    public void rejectsPathOutsideOfDirectory() throws IOException {
+        File archive = new Blob()
+                .file("../escaped", "data")
+                .write(temp.newFile("hostile.tree"));
+
+        assertRejected(archive);
+        assertFalse(new File(temp.getRoot(), "escaped").exists());
+    }
+
+    private void assertRejected(File archive) {
+        try {
+            TreeArchive.read(archive, new File(temp.getRoot(), "restored.app"));
+            fail("Archive was extracted");
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * Writes records as a blob from a shared cache may contain them.
+     */
+    private static class Blob {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private final DataOutputStream output = new DataOutputStream(bytes);
+
+        Blob() throws IOException {
+            output.writeUTF("MOETREE1");
+        }
+
+        Blob directory(String path) throws IOException {
+            output.writeByte('d');
+            output.writeUTF(path);
+            output.writeShort(0755);
+            return this;
+        }
+
+        Blob file(String path, String content) throws IOException {
+            byte[] data = content.getBytes("UTF-8");
+            output.writeByte('f');
+            output.writeUTF(path);
+            output.writeShort(0644);
+            output.writeLong(data.length);
+            output.write(data);
+            return this;
+        }
+
+        Blob link(String path, String target) throws IOException {
+            output.writeByte('l');
+            output.writeUTF(path);
+            output.writeShort(0777);
+            output.writeUTF(target);
+            return this;
+        }
+
+        File write(File file) throws IOException {
+            output.writeByte(0);
+            OutputStream gzip = new GZIPOutputStream(new FileOutputStream(file));
+            try {
+                bytes.writeTo(gzip);
+            } finally {
+                gzip.close();
+            }
+            return file;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+Copyright 2014-2016 Intel Corporation
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.moe.executable_builder.telemetry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RegressionReportTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void ignoresCacheHits() {
+        // Compiles take about 10 s, a run of cache hits took milliseconds before the last miss
+        List<BuildRecord> records = new ArrayList<BuildRecord>();
+        for (int i = 0; i < 20; i++) {
+            records.add(build(i, false, 10000 + (i % 3) * 100));
+        }
+        for (int i = 20; i < 30; i++) {
+            records.add(build(i, true, 20 + i % 2));
+        }
+        records.add(build(30, false, 10050));
+
+        RegressionReport report = new RegressionReport(records, 5, 20, 0.01, 0.1);
+        assertFalse(report.hasRegressions());
+        assertEquals(10050, report.getTrends().get(0).getRecentMeanMillis(), 100);
+    }
+
+    @Test
+    public void findsSlowdownBetweenCacheHits() {
+        List<BuildRecord> records = new ArrayList<BuildRecord>();
+        for (int i = 0; i < 20; i++) {
+            records.add(build(i, false, 10000 + (i % 3) * 100));
+            records.add(build(i, true, 20));
+        }
+        for (int i = 20; i < 25; i++) {
+            records.add(build(i, false, 15000 + (i % 3) * 100));
+            records.add(build(i, true, 20));
+        }
+
+        RegressionReport report = new RegressionReport(records, 5, 20, 0.01, 0.1);
+        assertTrue(report.hasRegressions());
+    }
+
+    @Test
+    public void storeKeepsReuseFlags() throws IOException {
+        TelemetryStore store = new TelemetryStore(new File(temp.getRoot(), "builds.bin"));
+        store.append(build(0, true, 20));
+        store.append(build(1, false, 10000));
+
+        List<BuildRecord> records = store.readAll();
+        assertEquals(2, records.size());
+        assertTrue(records.get(0).getTasks().get(0).isReused());
+        assertFalse(records.get(1).getTasks().get(0).isReused());
+        assertEquals(10000, records.get(1).getTasks().get(0).getWallMillis());
+    }
+
+    private static BuildRecord build(int index, boolean reused, long millis) {
+        BuildRecord.TaskSample sample = new BuildRecord.TaskSample("Dex2oat-arm64", "SUCCESS", reused, millis, 0, 0);
+        return new BuildRecord(index * 60000L, 0, reused ? 1 : 0, reused ? 0 : 1, Collections.singletonList(sample));
+    }
+}